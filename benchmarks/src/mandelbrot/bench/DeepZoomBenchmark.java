@@ -0,0 +1,51 @@
+package mandelbrot.bench;
+
+import mandelbrot.RenderEngine;
+import mandelbrot.Viewport;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Perturbation renders past the reach of doubles, including the reference orbit, at a well-known point of the
+ * seahorse valley.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DeepZoomBenchmark {
+    static final BigDecimal CENTRE_X = new BigDecimal("-0.743643887037158704752191506114774");
+    static final BigDecimal CENTRE_Y = new BigDecimal("0.131825904205311970493132056385139");
+
+    @Param({"1e-20", "1e-50", "1e-100"})
+    double pixelSize;
+
+    @Param({"10000"})
+    int numIterations;
+
+    RenderEngine engine;
+    Viewport viewport;
+    int[] iterations;
+
+    @Setup
+    public void setup() {
+        engine = new RenderEngine();
+        viewport = Viewport.centred(CENTRE_X, CENTRE_Y, pixelSize, pixelSize, 320, 240);
+        iterations = new int[viewport.getArea()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public int[] render() throws InterruptedException {
+        engine.render(viewport, numIterations, iterations, null);
+        return iterations;
+    }
+}
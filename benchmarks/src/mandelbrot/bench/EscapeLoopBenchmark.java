@@ -0,0 +1,48 @@
+package mandelbrot.bench;
+
+import mandelbrot.EscapeKernel;
+import mandelbrot.PrimitiveKernel;
+import mandelbrot.Viewport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Mandelbrot escape loop on one thread across the standard views and iteration caps. Small frame so the
+ * 100k cap stays within a few seconds per invocation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class EscapeLoopBenchmark {
+
+    @Param({"FULL_SET", "SEAHORSE_VALLEY", "DEEP_ZOOM"})
+    StandardViewport view;
+
+    @Param({"100", "1000", "10000", "100000"})
+    int numIterations;
+
+    @Param({"true", "false"})
+    boolean interiorChecks;
+
+    EscapeKernel kernel;
+    Viewport viewport;
+    int[] iterations;
+
+    @Setup
+    public void setup() {
+        kernel = new PrimitiveKernel(interiorChecks);
+        viewport = view.at(160, 128);
+        iterations = new int[viewport.getArea()];
+    }
+
+    @Benchmark
+    public int[] mandelbrot() {
+        for (int y = 0; y < viewport.getHeight(); y++)
+            kernel.mandelbrotRow(viewport, y, 0, viewport.getWidth(), numIterations, iterations);
+        return iterations;
+    }
+}
@@ -0,0 +1,134 @@
+package mandelbrot.bench;
+
+import mandelbrot.EscapeKernel;
+import mandelbrot.Formula;
+import mandelbrot.Viewport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Formula kernels against the same escape loops written out by hand, on one thread with no interior checks.
+ * Setup runs the kernel of every formula first, as a JVM switching between formulas would, so a kernel whose
+ * loop had gone megamorphic would fall behind its hand-written twin here.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FormulaBenchmark {
+    static final String[] FORMULAS = {"mandelbrot", "tricorn", "burningship", "multibrot3", "mandelbrot julia -0.8 0.156"};
+
+    @Param({"mandelbrot", "tricorn", "burningship", "multibrot3", "mandelbrot julia -0.8 0.156"})
+    String formula;
+
+    @Param({"1000"})
+    int numIterations;
+
+    EscapeKernel kernel;
+    Viewport viewport;
+    int[] iterations;
+
+    @Setup
+    public void setup() {
+        viewport = StandardViewport.FULL_SET.at(320, 256);
+        iterations = new int[viewport.getArea()];
+        for (String name : FORMULAS) {
+            EscapeKernel other = Formula.forName(name).createKernel(false);
+            for (int pass = 0; pass < 20; pass++) {
+                for (int y = 0; y < viewport.getHeight(); y++)
+                    other.mandelbrotRow(viewport, y, 0, viewport.getWidth(), numIterations, iterations);
+            }
+        }
+        kernel = Formula.forName(formula).createKernel(false);
+    }
+
+    @Benchmark
+    public int[] kernel() {
+        for (int y = 0; y < viewport.getHeight(); y++)
+            kernel.mandelbrotRow(viewport, y, 0, viewport.getWidth(), numIterations, iterations);
+        return iterations;
+    }
+
+    @Benchmark
+    public int[] handWritten() {
+        int width = viewport.getWidth();
+        for (int y = 0; y < viewport.getHeight(); y++) {
+            double ci = viewport.calculateY(y);
+            int offset = y * width;
+            if ("mandelbrot".equals(formula)) {
+                for (int x = 0; x < width; x++)
+                    iterations[offset + x] = mandelbrot(0, 0, viewport.calculateX(x), ci, numIterations);
+            } else if ("tricorn".equals(formula)) {
+                for (int x = 0; x < width; x++)
+                    iterations[offset + x] = tricorn(viewport.calculateX(x), ci, numIterations);
+            } else if ("burningship".equals(formula)) {
+                for (int x = 0; x < width; x++)
+                    iterations[offset + x] = burningShip(viewport.calculateX(x), ci, numIterations);
+            } else if ("multibrot3".equals(formula)) {
+                for (int x = 0; x < width; x++)
+                    iterations[offset + x] = multibrot3(viewport.calculateX(x), ci, numIterations);
+            } else {
+                for (int x = 0; x < width; x++)
+                    iterations[offset + x] = mandelbrot(viewport.calculateX(x), ci, -0.8, 0.156, numIterations);
+            }
+        }
+        return iterations;
+    }
+
+    private static int mandelbrot(double zr, double zi, double cr, double ci, int maxIterations) {
+        double zr2 = zr * zr, zi2 = zi * zi;
+        int n = 0;
+        while (zr2 + zi2 < 4 && n < maxIterations) {
+            zi = 2 * zr * zi + ci;
+            zr = zr2 - zi2 + cr;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            n++;
+        }
+        return n;
+    }
+
+    private static int tricorn(double cr, double ci, int maxIterations) {
+        double zr = 0, zi = 0, zr2 = 0, zi2 = 0;
+        int n = 0;
+        while (zr2 + zi2 < 4 && n < maxIterations) {
+            zi = -2 * zr * zi + ci;
+            zr = zr2 - zi2 + cr;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            n++;
+        }
+        return n;
+    }
+
+    private static int burningShip(double cr, double ci, int maxIterations) {
+        double zr = 0, zi = 0, zr2 = 0, zi2 = 0;
+        int n = 0;
+        while (zr2 + zi2 < 4 && n < maxIterations) {
+            zi = 2 * Math.abs(zr * zi) + ci;
+            zr = zr2 - zi2 + cr;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            n++;
+        }
+        return n;
+    }
+
+    //z^3 expanded, against the kernel's loop over the power
+    private static int multibrot3(double cr, double ci, int maxIterations) {
+        double zr = 0, zi = 0, zr2 = 0, zi2 = 0;
+        int n = 0;
+        while (zr2 + zi2 < 4 && n < maxIterations) {
+            double r = zr * (zr2 - 3 * zi2) + cr;
+            zi = zi * (3 * zr2 - zi2) + ci;
+            zr = r;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            n++;
+        }
+        return n;
+    }
+}
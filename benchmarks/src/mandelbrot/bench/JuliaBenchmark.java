@@ -0,0 +1,52 @@
+package mandelbrot.bench;
+
+import mandelbrot.RenderEngine;
+import mandelbrot.Viewport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Julia preview as RenderPanel.renderJulia draws it: a quarter-size frame through the engine. The constants
+ * go from a fast-escaping dust to a connected set with a large interior.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class JuliaBenchmark {
+
+    @Param({"0.4:0.4", "-0.8:0.156", "-0.12:0.75"})
+    String constant;
+
+    @Param({"100", "1000", "10000"})
+    int numIterations;
+
+    RenderEngine engine;
+    Viewport viewport;
+    double complexX, complexY;
+    int[] iterations;
+
+    @Setup
+    public void setup() {
+        String[] parts = constant.split(":");
+        complexX = Double.parseDouble(parts[0]);
+        complexY = Double.parseDouble(parts[1]);
+        engine = new RenderEngine();
+        viewport = new Viewport(-2.0, 2.0, -1.6, 1.6, 320, 240);
+        iterations = new int[viewport.getArea()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public int[] julia() throws InterruptedException {
+        engine.renderJulia(viewport, complexX, complexY, numIterations, iterations, null);
+        return iterations;
+    }
+}
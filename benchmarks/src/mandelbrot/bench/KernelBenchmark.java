@@ -0,0 +1,59 @@
+package mandelbrot.bench;
+
+import mandelbrot.ComplexKernel;
+import mandelbrot.EscapeKernel;
+import mandelbrot.PrimitiveKernel;
+import mandelbrot.Viewport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-threaded comparison of the escape-time kernels over the default view, so the numbers reflect the
+ * inner loop only and not the engine's scheduling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class KernelBenchmark {
+
+    @Param({"complex", "primitive", "primitive-interior", "default"})
+    String kernelName;
+
+    @Param({"1000"})
+    int numIterations;
+
+    EscapeKernel kernel;
+    Viewport viewport;
+    int[] iterations;
+
+    @Setup
+    public void setup() {
+        //The vector kernel when its module is on the path, what the engine would pick
+        if ("default".equals(kernelName))
+            kernel = EscapeKernel.createDefault();
+        else if ("complex".equals(kernelName))
+            kernel = new ComplexKernel();
+        else
+            kernel = new PrimitiveKernel("primitive-interior".equals(kernelName));
+        viewport = new Viewport(-2.0, 2.0, -1.6, 1.6, 640, 480);
+        iterations = new int[viewport.getArea()];
+    }
+
+    @Benchmark
+    public int[] mandelbrot() {
+        for (int y = 0; y < viewport.getHeight(); y++)
+            kernel.mandelbrotRow(viewport, y, 0, viewport.getWidth(), numIterations, iterations);
+        return iterations;
+    }
+
+    @Benchmark
+    public int[] julia() {
+        for (int y = 0; y < viewport.getHeight(); y++)
+            kernel.juliaRow(viewport, -0.8, 0.156, y, 0, viewport.getWidth(), numIterations, iterations);
+        return iterations;
+    }
+}
@@ -0,0 +1,58 @@
+package mandelbrot.bench;
+
+import mandelbrot.PrimitiveKernel;
+import mandelbrot.RenderEngine;
+import mandelbrot.RenderMode;
+import mandelbrot.Viewport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tiled against rectangle subdivision for full frames, with and without the kernel's interior checks since
+ * both mostly save work on the same black regions.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderModeBenchmark {
+
+    @Param({"TILED", "SUBDIVISION"})
+    RenderMode renderMode;
+
+    @Param({"FULL_SET", "SEAHORSE_VALLEY"})
+    StandardViewport view;
+
+    @Param({"1000", "10000"})
+    int numIterations;
+
+    @Param({"true", "false"})
+    boolean interiorChecks;
+
+    RenderEngine engine;
+    Viewport viewport;
+    int[] iterations;
+
+    @Setup
+    public void setup() {
+        engine = new RenderEngine();
+        engine.setKernel(new PrimitiveKernel(interiorChecks));
+        engine.setRenderMode(renderMode);
+        viewport = view.at(1280, 960);
+        iterations = new int[viewport.getArea()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public int[] render() throws InterruptedException {
+        engine.render(viewport, numIterations, iterations, null);
+        return iterations;
+    }
+}
@@ -0,0 +1,29 @@
+package mandelbrot.bench;
+
+import mandelbrot.Viewport;
+
+/**
+ * Reference views used across the benchmarks, from cheap to expensive per pixel.
+ */
+public enum StandardViewport {
+    //The default view of RenderPanel, mostly interior and fast escapes
+    FULL_SET(0.0, 0.0, 4.0),
+    //Boundary detail between the cardioid and the period-2 bulb, few interior pixels and long escapes
+    SEAHORSE_VALLEY(-0.743643887, 0.131825904, 0.01),
+    //Same spot close to the limit of double precision
+    DEEP_ZOOM(-0.743643887037151, 0.131825904205330, 1e-10);
+
+    final double centreX, centreY, span;
+
+    StandardViewport(double centreX, double centreY, double span) {
+        this.centreX = centreX;
+        this.centreY = centreY;
+        this.span = span;
+    }
+
+    //Keeps the 4:3.2 aspect ratio of RenderPanel
+    public Viewport at(int width, int height) {
+        double spanY = span * height / width;
+        return new Viewport(centreX - span / 2, centreX + span / 2, centreY - spanY / 2, centreY + spanY / 2, width, height);
+    }
+}
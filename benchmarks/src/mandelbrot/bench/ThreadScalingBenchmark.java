@@ -0,0 +1,51 @@
+package mandelbrot.bench;
+
+import mandelbrot.RenderEngine;
+import mandelbrot.Viewport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full-frame renders through the engine at different pool sizes. Compare against threads = 1 for the speedup;
+ * counts above the core count of the machine only measure oversubscription.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadScalingBenchmark {
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    int threads;
+
+    @Param({"FULL_SET", "SEAHORSE_VALLEY"})
+    StandardViewport view;
+
+    @Param({"1000"})
+    int numIterations;
+
+    RenderEngine engine;
+    Viewport viewport;
+    int[] iterations;
+
+    @Setup
+    public void setup() {
+        engine = new RenderEngine(threads);
+        viewport = view.at(1280, 960);
+        iterations = new int[viewport.getArea()];
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Benchmark
+    public int[] render() throws InterruptedException {
+        engine.render(viewport, numIterations, iterations, null);
+        return iterations;
+    }
+}
@@ -0,0 +1,166 @@
+package mandelbrot.bench;
+
+import mandelbrot.Palette;
+import mandelbrot.RenderEngine;
+import mandelbrot.TileServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Puts load on a {@link TileServer}: clients ask for random tiles of one zoom level as fast as they get them, so
+ * with a few tiles per client many requests overlap, as when several viewers open the same map. Prints requests
+ * per second, latency percentiles, the status codes and the server's own counts.
+ * <p>
+ * Usage: {@code TileServerLoadTest [base URL] [clients] [seconds] [zoom] [tiles]}. Without a URL, or with
+ * {@code local}, a server is started in this JVM with one render thread per core and a queue of twice that,
+ * small enough for a burst to be turned away with 503s.
+ */
+public class TileServerLoadTest {
+    public static void main(String[] args) throws Exception {
+        String base = args.length > 0 ? args[0] : "local";
+        int clients = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        int zoom = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int tiles = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+
+        TileServer server = null;
+        if (base.equals("local")) {
+            int threads = Runtime.getRuntime().availableProcessors();
+            //A cache of nothing, so every request past the first burst still renders or shares a render
+            server = new TileServer(new RenderEngine(threads), 0, threads * 2, 0, 1000, 100000, Palette.HUE, 1);
+            base = "http://localhost:" + server.getPort();
+        }
+
+        System.out.println(clients + " clients for " + seconds + " s on " + tiles + " tiles of zoom " + zoom + " at "
+                + base);
+        final long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        final List<Client> all = new ArrayList<Client>();
+        final CountDownLatch done = new CountDownLatch(clients);
+        for (int i = 0; i < clients; i++) {
+            final Client client = new Client(base, zoom, tiles, i);
+            all.add(client);
+            Thread t = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        client.run(end);
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "load-" + i);
+            t.setDaemon(true);
+            t.start();
+        }
+        done.await();
+
+        long[] latencies = new long[0];
+        Map<Integer, Integer> statuses = new TreeMap<Integer, Integer>();
+        for (Client client : all) {
+            int n = latencies.length;
+            latencies = Arrays.copyOf(latencies, n + client.count);
+            System.arraycopy(client.latencies, 0, latencies, n, client.count);
+            for (Map.Entry<Integer, Integer> status : client.statuses.entrySet()) {
+                Integer count = statuses.get(status.getKey());
+                statuses.put(status.getKey(), (count == null ? 0 : count) + status.getValue());
+            }
+        }
+        Arrays.sort(latencies);
+        System.out.println(String.format(Locale.ROOT, "%d requests, %.1f/s, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                latencies.length, latencies.length / (double) seconds, percentile(latencies, 0.5),
+                percentile(latencies, 0.99), percentile(latencies, 1)));
+        System.out.println("statuses " + statuses);
+        if (server != null) {
+            System.out.print(stats(base));
+            server.close();
+            server.getEngine().shutdown();
+        }
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        if (sorted.length == 0)
+            return Double.NaN;
+        int i = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(i, 0)] / 1e6;
+    }
+
+    private static String stats(String base) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(base + "/stats").openConnection();
+        return new String(readAll(connection.getInputStream()), "UTF-8");
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        try {
+            byte[] buffer = new byte[1 << 14];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (int n; (n = in.read(buffer)) >= 0; )
+                bytes.write(buffer, 0, n);
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static final class Client {
+        final String base;
+        final int zoom, tiles;
+        final Random random;
+        final Map<Integer, Integer> statuses = new TreeMap<Integer, Integer>();
+        long[] latencies = new long[1024];
+        int count;
+
+        Client(String base, int zoom, int tiles, long seed) {
+            this.base = base;
+            this.zoom = zoom;
+            this.tiles = tiles;
+            this.random = new Random(seed);
+        }
+
+        void run(long end) {
+            //Tiles along a diagonal band, which has both interior and edge
+            int side = 1 << zoom;
+            while (System.nanoTime() < end) {
+                int tile = random.nextInt(tiles);
+                int x = tile % side, y = (tile / side + tile) % side;
+                long start = System.nanoTime();
+                int status;
+                try {
+                    HttpURLConnection connection = (HttpURLConnection) new URL(base + "/" + zoom + "/" + x + "/" + y
+                            + ".png").openConnection();
+                    status = connection.getResponseCode();
+                    InputStream body = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+                    if (body != null)
+                        readAll(body);
+                } catch (IOException e) {
+                    status = -1;
+                }
+                if (count == latencies.length)
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                latencies[count++] = System.nanoTime() - start;
+                Integer n = statuses.get(status);
+                statuses.put(status, (n == null ? 0 : n) + 1);
+                if (status == 503) {
+                    //Back off a little, as the Retry-After asks, without waiting a whole second
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package mandelbrot;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Adaptive anti-aliasing of a rendered {@link FrameBuffer}. The frame is coloured as it is, then only the pixels
+ * on edges are supersampled: those whose count is more than a threshold away from one of their eight neighbours,
+ * or that reached the limit while a neighbour didn't. Each of them gets samples x samples points, one jittered
+ * inside each cell of a grid over the pixel, coloured one by one and averaged. Flat regions and slow gradients
+ * keep their single sample, which is where most of a frame is, so the cost is a fraction of supersampling all of
+ * it.
+ * <p>
+ * The frame is split into bands of rows for the pool, halved until {@link #MIN_ROWS}. Jitter comes from a hash of
+ * the pixel index, so the same frame always comes out the same.
+ */
+class AntiAliaser {
+    static final int MIN_ROWS = 4;
+
+    //Iterates the point at a pixel position with fractions, pixel (x, y) itself being where the frame sampled it
+    interface Sampler {
+        int iterate(double x, double y);
+
+        //Smooth escape value of a sample, NaN if there is none
+        float escapeValue(double x, double y, int iterations);
+    }
+
+    final Viewport viewport;
+    final int numIterations;
+    final int[] iterations;
+    final float[] smooth;
+    final Palette palette;
+    final int[] rgb;
+    final int samples, threshold;
+    final Sampler sampler;
+    final RenderListener listener;
+    final AtomicBoolean cancelled;
+
+    AntiAliaser(RenderJob job, FrameBuffer frame, Sampler sampler, Palette palette, int[] rgb, int samples,
+                int threshold, RenderListener listener) {
+        this.viewport = frame.viewport;
+        this.numIterations = frame.numIterations;
+        this.iterations = frame.iterations;
+        this.smooth = frame.smooth;
+        this.sampler = sampler;
+        this.palette = palette;
+        this.rgb = rgb;
+        this.samples = samples;
+        this.threshold = threshold;
+        this.listener = listener;
+        this.cancelled = job.cancelled;
+    }
+
+    RecursiveAction createTask() {
+        return new Band(0, viewport.height);
+    }
+
+    class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int y, height;
+
+        Band(int y, int height) {
+            this.y = y;
+            this.height = height;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get())
+                return;
+            if (height > MIN_ROWS) {
+                int half = height >>> 1;
+                invokeAll(new Band(y, half), new Band(y + half, height - half));
+                return;
+            }
+
+            int width = viewport.width;
+            palette.paint(iterations, smooth, numIterations, rgb, width, 0, y, width, height);
+            for (int row = y; row < y + height; row++) {
+                if (cancelled.get())
+                    return;
+                for (int x = 0; x < width; x++) {
+                    if (isEdge(x, row))
+                        rgb[row * width + x] = supersample(x, row);
+                }
+            }
+            if (listener != null)
+                listener.tileRendered(0, y, width, height);
+        }
+    }
+
+    boolean isEdge(int x, int y) {
+        int width = viewport.width;
+        int n = iterations[y * width + x];
+        boolean inside = n >= numIterations;
+        for (int ny = Math.max(0, y - 1); ny <= Math.min(viewport.height - 1, y + 1); ny++) {
+            for (int nx = Math.max(0, x - 1); nx <= Math.min(width - 1, x + 1); nx++) {
+                int m = iterations[ny * width + nx];
+                if ((m >= numIterations) != inside || Math.abs(m - n) > threshold)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private int supersample(int x, int y) {
+        long pixel = (long) y * viewport.width + x;
+        int r = 0, g = 0, b = 0;
+        for (int sy = 0; sy < samples; sy++) {
+            for (int sx = 0; sx < samples; sx++) {
+                int k = sy * samples + sx;
+                double px = x + (sx + jitter(pixel, 2 * k)) / samples - 0.5;
+                double py = y + (sy + jitter(pixel, 2 * k + 1)) / samples - 0.5;
+                int n = sampler.iterate(px, py);
+                float value = smooth != null && n < numIterations ? sampler.escapeValue(px, py, n) : Float.NaN;
+                int colour = palette.colour(n, value, numIterations);
+                r += colour >> 16 & 255;
+                g += colour >> 8 & 255;
+                b += colour & 255;
+            }
+        }
+        int total = samples * samples;
+        return (r + total / 2) / total << 16 | (g + total / 2) / total << 8 | (b + total / 2) / total;
+    }
+
+    //Uniform in [0, 1), the k-th of a pixel
+    static double jitter(long pixel, int k) {
+        long h = pixel * 0x9E3779B97F4A7C15L ^ k * 0xC2B2AE3D27D4EB4FL;
+        h ^= h >>> 31;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 29;
+        return (h >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,390 @@
+package mandelbrot;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renders without a window, for zoom animations and posters on machines with no display. Driven by a properties
+ * file, a list of {@code key=value} arguments, or a file with arguments overriding it:
+ * <pre>
+ * java mandelbrot.MandelBrot render zoom.properties frames=120 output=out
+ * </pre>
+ * Keys:
+ * <ul>
+ * <li>{@code mode}: {@code zoom} writes one PNG per frame into the {@code output} directory, {@code poster} one
+ * PNG of the {@code view} to the {@code output} file</li>
+ * <li>{@code size}: pixels as {@code WIDTHxHEIGHT}, 1920x1080 by default</li>
+ * <li>{@code view}, {@code keyframe.0}, {@code keyframe.1}, ...: {@code centreX centreY width [iterations]}, the
+ * width being how much of the real axis the image spans. Centres are read as exact decimals so keyframes can go
+ * as deep as the perturbation tier does.</li>
+ * <li>{@code iterations}: the limit of views and keyframes that don't give their own, 1000 by default</li>
+ * <li>{@code frames}: how many frames a zoom has, spread evenly over the keyframe segments; {@code first} and
+ * {@code last} render only part of them, to split a zoom between machines</li>
+ * <li>{@code formula}: {@code mandelbrot} by default, {@code tricorn}, {@code burningship} or {@code multibrotN}
+ * for z^N + c, see {@link Formula}; {@code julia}: {@code cx cy} renders the formula's Julia set at that c
+ * instead. Only the Mandelbrot set zooms deeper than double precision.</li>
+ * <li>{@code palette}, {@code smooth}, {@code threads}, and {@code compression} of the PNGs from 0 to 9</li>
+ * <li>{@code render.mode}: {@code tiled} by default, or {@code subdivision} to fill rectangles with uniform
+ * borders without iterating them, see {@link RenderMode}. It only applies to Mandelbrot renders in double
+ * precision without {@code smooth}, rendered from scratch: posters, and the first frame of a zoom, whose later
+ * frames start from the frame before and render the rest tiled.</li>
+ * <li>{@code antialias}: samples per axis for pixels on edges, see {@link AntiAliaser}, 1 by default which turns
+ * it off; {@code antialias.threshold}: how far a count has to be from a neighbour's to make an edge, 1 by default</li>
+ * <li>{@code workers}: worker JVMs to start on this machine, see {@link RenderCoordinator}, with
+ * {@code worker.threads} threads each; {@code listen}: the port workers on other machines connect to. Either one
+ * renders on the workers instead of in this JVM, in tiles of {@code tile} pixels square, and gives up a worker
+ * that has been silent for {@code worker.timeout} seconds.</li>
+ * </ul>
+ * Between keyframes the width goes geometrically, so the zoom speed is constant, and the centre moves in step with
+ * the width so the point being zoomed into stays put on screen. The limit goes geometrically too.
+ * <p>
+ * The engine renders one frame at a time on every core while the frame before it is coloured and written on a
+ * thread of its own. Frames that are already in the output directory are skipped, so a zoom that died can be run
+ * again with the same arguments. Posters are streamed to disk by a {@link StreamingRenderer}, so their size isn't
+ * bound by the heap.
+ */
+public class BatchRenderer {
+    final RenderEngine engine;
+    final Properties config;
+    final int width, height;
+    final int numIterations;
+    final Formula formula;
+    final Palette palette;
+    final boolean smooth;
+    final int compression;
+    //Samples per axis on edge pixels, 1 for none
+    final int antialias, antialiasThreshold;
+    //Local worker JVMs and the port for remote ones, -1 renders in this JVM
+    final int workers, workerThreads, port;
+    final int tileSize, workerTimeout;
+    private RenderCoordinator coordinator;
+
+    public BatchRenderer(Properties config) {
+        this.config = config;
+        String size = config.getProperty("size", "1920x1080");
+        String[] dimensions = size.toLowerCase(Locale.ROOT).split("x");
+        if (dimensions.length != 2)
+            throw new IllegalArgumentException("Size must be WIDTHxHEIGHT: " + size);
+        width = Integer.parseInt(dimensions[0].trim());
+        height = Integer.parseInt(dimensions[1].trim());
+        numIterations = intProperty("iterations", 1000);
+        formula = formula();
+        palette = Palette.valueOf(config.getProperty("palette", Palette.HUE.name()).trim().toUpperCase(Locale.ROOT));
+        smooth = Boolean.parseBoolean(config.getProperty("smooth", "false").trim());
+        compression = intProperty("compression", 6);
+        if (compression < 0 || compression > 9)
+            throw new IllegalArgumentException("Compression must be 0 to 9: " + compression);
+        antialias = intProperty("antialias", 1);
+        antialiasThreshold = intProperty("antialias.threshold", 1);
+        if (antialias < 1 || antialiasThreshold < 0)
+            throw new IllegalArgumentException("Antialias must be at least 1 and its threshold at least 0");
+        int threads = intProperty("threads", Runtime.getRuntime().availableProcessors());
+        engine = new RenderEngine(threads);
+        engine.setFormula(formula);
+        engine.setRenderMode(RenderMode.valueOf(config.getProperty("render.mode", RenderMode.TILED.name()).trim()
+                .toUpperCase(Locale.ROOT)));
+        workers = intProperty("workers", 0);
+        workerThreads = intProperty("worker.threads", Math.max(1, threads / Math.max(1, workers)));
+        port = intProperty("listen", workers > 0 ? 0 : -1);
+        tileSize = intProperty("tile", RenderCoordinator.DEFAULT_TILE_SIZE);
+        workerTimeout = intProperty("worker.timeout", RenderCoordinator.DEFAULT_TIMEOUT_MILLIS / 1000);
+        if (workers < 0 || workerThreads < 1 || port > 65535)
+            throw new IllegalArgumentException("Workers must be at least 0, their threads at least 1 and the port below 65536");
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        BatchRenderer renderer = null;
+        try {
+            renderer = new BatchRenderer(parse(args));
+            renderer.engine.registerMBean("batch");
+            renderer.run();
+            renderer.printMetrics();
+        } catch (IllegalArgumentException e) {
+            //Bad configuration, everything else is a real failure and keeps its stack trace
+            System.err.println(e.getMessage());
+            System.err.println("Usage: render [config.properties] [key=value ...], see BatchRenderer for the keys");
+            System.exit(1);
+        } finally {
+            if (renderer != null)
+                renderer.engine.shutdown();
+        }
+    }
+
+    //A properties file, if the first argument isn't a key=value pair, with the pairs after it on top
+    static Properties parse(String[] args) throws IOException {
+        Properties config = new Properties();
+        int i = 0;
+        if (args.length > 0 && !args[0].contains("=")) {
+            InputStream in = new FileInputStream(args[0]);
+            try {
+                config.load(in);
+            } finally {
+                in.close();
+            }
+            i++;
+        }
+        for (; i < args.length; i++) {
+            int split = args[i].indexOf('=');
+            if (split <= 0)
+                throw new IllegalArgumentException("Not a key=value pair: " + args[i]);
+            config.setProperty(args[i].substring(0, split).trim(), args[i].substring(split + 1).trim());
+        }
+        return config;
+    }
+
+    public void run() throws IOException, InterruptedException {
+        String mode = config.getProperty("mode", "zoom").trim();
+        if (!mode.equals("zoom") && !mode.equals("poster"))
+            throw new IllegalArgumentException("Unknown mode " + mode + ", expected zoom or poster");
+        if (port >= 0) {
+            coordinator = new RenderCoordinator(port, tileSize, workerTimeout * 1000);
+            System.out.println("Coordinating on port " + coordinator.getPort());
+        }
+        try {
+            if (workers > 0)
+                coordinator.startLocalWorkers(workers, workerThreads);
+            if (mode.equals("zoom"))
+                renderZoom(new File(config.getProperty("output", "frames")));
+            else
+                renderPoster(new File(config.getProperty("output", "poster.png")));
+        } finally {
+            if (coordinator != null)
+                coordinator.close();
+        }
+    }
+
+    public void renderZoom(File directory) throws IOException, InterruptedException {
+        List<Keyframe> keyframes = new ArrayList<Keyframe>();
+        for (int k = 0; config.getProperty("keyframe." + k) != null; k++)
+            keyframes.add(keyframe("keyframe." + k));
+        if (keyframes.size() < 2)
+            throw new IllegalArgumentException("A zoom needs keyframe.0 and keyframe.1 at least");
+        int frames = intProperty("frames", 100);
+        int first = intProperty("first", 0), last = intProperty("last", frames - 1);
+        if (frames < 2 || first < 0 || last >= frames || first > last)
+            throw new IllegalArgumentException("Frames " + first + " to " + last + " of " + frames + " don't make a zoom");
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create " + directory);
+
+        ExecutorService writer = writerThread();
+        try {
+            Future<?> writing = null;
+            FrameBuffer previous = null;
+            for (int f = first; f <= last; f++) {
+                File file = new File(directory, String.format(Locale.ROOT, "frame-%05d.png", f));
+                if (file.exists())
+                    continue;
+
+                //Evenly over the segments, the last frame is the last keyframe
+                double position = (double) f * (keyframes.size() - 1) / (frames - 1);
+                int segment = Math.min((int) position, keyframes.size() - 2);
+                Keyframe frame = keyframes.get(segment).towards(keyframes.get(segment + 1), position - segment);
+
+                long start = System.currentTimeMillis();
+                FrameBuffer buffer = previous != null
+                        ? previous.reproject(frame.viewport(width, height), frame.numIterations, smooth)
+                        : new FrameBuffer(frame.viewport(width, height), frame.numIterations, smooth);
+                String stats;
+                if (coordinator != null) {
+                    coordinator.render(buffer, formula);
+                    stats = coordinator.toString();
+                } else {
+                    RenderJob job = engine.submit(buffer, 1, null);
+                    job.await();
+                    stats = job.getStats().toString();
+                }
+                System.out.println("Frame " + f + " of " + frames + " in " + (System.currentTimeMillis() - start) / 1000d
+                        + " s, " + buffer.getViewport() + ", " + stats);
+
+                //One frame is written while the next renders, waiting here keeps it to one
+                await(writing);
+                int[] rgb = antialias > 1 ? antiAlias(buffer) : null;
+                writing = writer.submit(write(buffer, rgb, file));
+                previous = buffer;
+            }
+            await(writing);
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    //Totals for sizing the farm, busy and idle time per worker included
+    void printMetrics() {
+        if (coordinator != null) {
+            System.out.println(coordinator.getTilesRendered() + " tiles on workers, " + coordinator.getRetries()
+                    + " retried, by worker " + coordinator.getTilesByWorker());
+            //The engine here only anti-aliased
+            if (antialias <= 1)
+                return;
+        }
+        RenderMetrics metrics = engine.getMetrics();
+        System.out.printf(Locale.ROOT, "%d renders, %d pixels, %d iterations, %d interior, %.0f pixels/s, "
+                        + "queue wait %.2f ms%n", metrics.getRendersFinished(), metrics.getPixels(),
+                metrics.getIterations(), metrics.getInteriorPixels(), metrics.getPixelsPerSecond(),
+                metrics.getMeanQueueWaitMillis());
+        System.out.println("Busy ms " + new TreeMap<String, Long>(metrics.getBusyMillisByThread())
+                + ", idle ms " + new TreeMap<String, Long>(metrics.getIdleMillisByThread()));
+    }
+
+    //Streamed to disk in strips, see StreamingRenderer
+    public void renderPoster(File file) throws IOException, InterruptedException {
+        Keyframe view = keyframe("view");
+        StreamingRenderer streaming = new StreamingRenderer(engine, palette, smooth, compression, antialias,
+                antialiasThreshold);
+        streaming.setCoordinator(coordinator);
+        streaming.render(view.viewport(width, height), view.numIterations, file);
+        System.out.println("Wrote " + file.getAbsolutePath());
+    }
+
+    //Coloured with the edges supersampled, on the engine's pool
+    private int[] antiAlias(FrameBuffer buffer) throws InterruptedException {
+        int[] rgb = new int[buffer.getViewport().getArea()];
+        engine.submitAntiAliased(buffer, palette, rgb, antialias, antialiasThreshold, null).await();
+        return rgb;
+    }
+
+    //Colours the frame unless it comes with its colours
+    private Runnable write(final FrameBuffer buffer, final int[] coloured, final File file) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                Viewport viewport = buffer.getViewport();
+                int[] rgb = coloured;
+                if (rgb == null) {
+                    rgb = new int[viewport.getArea()];
+                    palette.paint(buffer.iterations, buffer.smooth, buffer.numIterations, rgb, viewport.width,
+                            0, 0, viewport.width, viewport.height);
+                }
+                //Written under another name and renamed, so a frame file that exists is always complete
+                File partial = new File(file.getPath() + ".part");
+                try {
+                    PngWriter png = new PngWriter(new BufferedOutputStream(new FileOutputStream(partial), 1 << 16),
+                            viewport.width, viewport.height, compression);
+                    try {
+                        png.writeRows(rgb, 0, viewport.height);
+                    } catch (IOException e) {
+                        png.abort();
+                        throw e;
+                    }
+                    png.close();
+                    if (!partial.renameTo(file))
+                        throw new IOException("Can't rename " + partial + " to " + file);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Writing " + file + " failed", e);
+                }
+            }
+        };
+    }
+
+    private static ExecutorService writerThread() {
+        return Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "frame-writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static void await(Future<?> writing) throws IOException, InterruptedException {
+        if (writing == null)
+            return;
+        try {
+            writing.get();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    private int intProperty(String key, int defaultValue) {
+        String value = config.getProperty(key);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + key + ": " + value);
+        }
+    }
+
+    private Formula formula() {
+        Formula formula = Formula.forName(config.getProperty("formula", Formula.MANDELBROT.getName()));
+        String julia = config.getProperty("julia");
+        if (julia == null)
+            return formula;
+        String[] parts = julia.trim().split("[\\s,]+");
+        try {
+            if (parts.length == 2)
+                return formula.julia(Double.parseDouble(parts[0]), Double.parseDouble(parts[1]));
+        } catch (NumberFormatException e) {
+            //Same message as a wrong count
+        }
+        throw new IllegalArgumentException("julia must be cx cy: " + julia);
+    }
+
+    private Keyframe keyframe(String key) {
+        String value = config.getProperty(key);
+        if (value == null)
+            throw new IllegalArgumentException("Missing " + key);
+        String[] parts = value.trim().split("[\\s,]+");
+        if (parts.length != 3 && parts.length != 4)
+            throw new IllegalArgumentException(key + " must be centreX centreY width [iterations]: " + value);
+        try {
+            return new Keyframe(new BigDecimal(parts[0]), new BigDecimal(parts[1]), Double.parseDouble(parts[2]),
+                    parts.length == 4 ? Integer.parseInt(parts[3]) : numIterations);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number in " + key + ": " + value);
+        }
+    }
+
+    //Where a zoom is at one moment, the width being how much of the real axis the image spans
+    static final class Keyframe {
+        final BigDecimal centreX, centreY;
+        final double width;
+        final int numIterations;
+
+        Keyframe(BigDecimal centreX, BigDecimal centreY, double width, int numIterations) {
+            if (!(width > 0))
+                throw new IllegalArgumentException("Keyframe width must be positive: " + width);
+            if (numIterations <= 0)
+                throw new IllegalArgumentException("Keyframe iterations must be positive: " + numIterations);
+            this.centreX = centreX;
+            this.centreY = centreY;
+            this.width = width;
+            this.numIterations = numIterations;
+        }
+
+        //The frame t of the way to next, 0 being this one and 1 next
+        Keyframe towards(Keyframe next, double t) {
+            double w = width * Math.pow(next.width / width, t);
+            //How far the width has come decides how far the centre has, the zoom doesn't drift sideways
+            double moved = width == next.width ? t : (width - w) / (width - next.width);
+            MathContext mc = Viewport.contextFor(Math.min(w, next.width) / 1e4);
+            BigDecimal fraction = new BigDecimal(moved);
+            int n = (int) Math.round(numIterations * Math.pow((double) next.numIterations / numIterations, t));
+            return new Keyframe(centreX.add(next.centreX.subtract(centreX).multiply(fraction, mc), mc),
+                    centreY.add(next.centreY.subtract(centreY).multiply(fraction, mc), mc), w, Math.max(1, n));
+        }
+
+        Viewport viewport(int width, int height) {
+            double pixel = this.width / width;
+            return Viewport.centred(centreX, centreY, pixel, pixel, width, height);
+        }
+    }
+}
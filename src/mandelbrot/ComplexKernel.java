@@ -0,0 +1,42 @@
+package mandelbrot;
+
+/**
+ * The original kernel built on {@link Complex}. Allocates two objects per pixel, kept for comparison
+ * against {@link PrimitiveKernel}.
+ */
+public class ComplexKernel extends EscapeKernel {
+
+    @Override
+    public int mandelbrot(double cx, double cy, int maxIterations) {
+        //init complex values
+        Complex Zc = new Complex(cx, cy);
+        Complex Zn = new Complex(0, 0);
+
+        int iterations = 0;
+
+        //If have not escape the mandelbrot set ie, < 4, and iterations lesser than number defined, pass it again
+        while (Zn.modSquared() < 4 && iterations < maxIterations) {
+            Zn.square();
+            Zn.add(Zc);
+            iterations++;
+        }
+        return iterations;
+    }
+
+    @Override
+    public int julia(double zx, double zy, double cx, double cy, int maxIterations) {
+        //C is fixed, at the coordinate, user selected point
+        Complex Zc = new Complex(cx, cy);
+        //Zn is now with cx and cy
+        Complex Zn = new Complex(zx, zy);
+
+        int iterations = 0;
+
+        while (Zn.modSquared() < 4 && iterations < maxIterations) {
+            Zn.square();
+            Zn.add(Zc);
+            iterations++;
+        }
+        return iterations;
+    }
+}
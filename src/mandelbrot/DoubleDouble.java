@@ -0,0 +1,123 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+
+/**
+ * Mutable double-double number: an unevaluated sum hi + lo of two doubles with |lo| <= ulp(hi) / 2, giving about
+ * 106 bits (32 decimal digits) of significand. Operations work in place like {@link Complex}, so a kernel can keep
+ * a few instances for a whole row and iterate without allocating.
+ * <p>
+ * Uses Dekker's splitting for the exact products, so it doesn't rely on a fused multiply-add.
+ */
+public final class DoubleDouble {
+    //2^27 + 1, splits a double into two halves of 26 bits that multiply exactly
+    private static final double SPLITTER = 134217729.0;
+
+    double hi, lo;
+
+    public DoubleDouble() {
+    }
+
+    public DoubleDouble(double value) {
+        set(value);
+    }
+
+    public DoubleDouble(BigDecimal value) {
+        set(value);
+    }
+
+    public DoubleDouble set(double value) {
+        hi = value;
+        lo = 0;
+        return this;
+    }
+
+    public DoubleDouble set(DoubleDouble d) {
+        hi = d.hi;
+        lo = d.lo;
+        return this;
+    }
+
+    //Nearest double-double, the remainder after the leading double is rounded a second time
+    public DoubleDouble set(BigDecimal value) {
+        hi = value.doubleValue();
+        lo = Double.isInfinite(hi) ? 0 : value.subtract(new BigDecimal(hi)).doubleValue();
+        return this;
+    }
+
+    public double doubleValue() {
+        return hi + lo;
+    }
+
+    public DoubleDouble add(DoubleDouble d) {
+        addParts(d.hi, d.lo);
+        return this;
+    }
+
+    public DoubleDouble add(double d) {
+        addParts(d, 0);
+        return this;
+    }
+
+    public DoubleDouble subtract(DoubleDouble d) {
+        addParts(-d.hi, -d.lo);
+        return this;
+    }
+
+    public DoubleDouble multiply(DoubleDouble d) {
+        multiplyParts(d.hi, d.lo);
+        return this;
+    }
+
+    public DoubleDouble multiply(double d) {
+        multiplyParts(d, 0);
+        return this;
+    }
+
+    public DoubleDouble square() {
+        multiplyParts(hi, lo);
+        return this;
+    }
+
+    //Exact power of two scaling, used for the 2ab of a complex square
+    public DoubleDouble twice() {
+        hi *= 2;
+        lo *= 2;
+        return this;
+    }
+
+    private void addParts(double bHi, double bLo) {
+        //Two-sum of the high parts, error term gets the low parts
+        double s = hi + bHi;
+        double bb = s - hi;
+        double e = (hi - (s - bb)) + (bHi - bb);
+        e += lo + bLo;
+        normalise(s, e);
+    }
+
+    private void multiplyParts(double bHi, double bLo) {
+        //Two-product of the high parts, then the cross terms, lo * lo is below the precision
+        double p = hi * bHi;
+        double t = SPLITTER * hi;
+        double aH = t - (t - hi), aL = hi - aH;
+        t = SPLITTER * bHi;
+        double bH = t - (t - bHi), bL = bHi - bH;
+        double e = ((aH * bH - p) + aH * bL + aL * bH) + aL * bL;
+        e += hi * bLo + lo * bHi;
+        normalise(p, e);
+    }
+
+    private void normalise(double s, double e) {
+        hi = s + e;
+        lo = e - (hi - s);
+    }
+
+    public BigDecimal toBigDecimal() {
+        return new BigDecimal(hi).add(new BigDecimal(lo));
+    }
+
+    @Override
+    public String toString() {
+        return toBigDecimal().toString();
+    }
+}
@@ -0,0 +1,78 @@
+package mandelbrot;
+
+/**
+ * Mandelbrot rendering in {@link DoubleDouble} arithmetic, for zooms just past what doubles resolve, where
+ * perturbation's double deltas still miss pixels, see {@link PrecisionTier}. Each pixel's c is the viewport
+ * centre, rounded to a double-double, plus the pixel's double offset from it.
+ * <p>
+ * Each thread keeps one set of working numbers for the whole render, not one per pixel or sample. No interior
+ * shortcuts: the cardioid test and cycle detection in {@link PrimitiveKernel} are tuned for double precision and
+ * would misjudge pixels this small.
+ */
+class DoubleDoubleRenderer {
+    final Viewport viewport;
+    final int numIterations;
+    final DoubleDouble centreX, centreY;
+    //Anti-aliasing and the cost estimate iterate single points, many times over
+    private final ThreadLocal<Orbit> orbits = new ThreadLocal<Orbit>() {
+        @Override
+        protected Orbit initialValue() {
+            return new Orbit();
+        }
+    };
+
+    DoubleDoubleRenderer(Viewport viewport, int numIterations) {
+        this.viewport = viewport;
+        this.numIterations = numIterations;
+        this.centreX = new DoubleDouble(viewport.centreX);
+        this.centreY = new DoubleDouble(viewport.centreY);
+    }
+
+    void renderSpan(int y, int x, int count, int[] iterations) {
+        final Orbit orbit = orbits.get();
+        final int offset = y * viewport.width;
+        orbit.ci.set(centreY).add(viewport.offsetY(y));
+        for (int i = x; i < x + count; i++) {
+            orbit.cr.set(centreX).add(viewport.offsetX(i));
+            iterations[offset + i] = orbit.iterate(numIterations);
+        }
+    }
+
+    int iterate(int x, int y) {
+        return iterate(viewport.offsetX(x), viewport.offsetY(y));
+    }
+
+    //c given by its offset from the centre, which can fall anywhere inside a pixel
+    int iterate(double dcr, double dci) {
+        Orbit orbit = orbits.get();
+        orbit.cr.set(centreX).add(dcr);
+        orbit.ci.set(centreY).add(dci);
+        return orbit.iterate(numIterations);
+    }
+
+    //Working numbers of one pixel, reused for the next
+    static final class Orbit {
+        final DoubleDouble cr = new DoubleDouble(), ci = new DoubleDouble();
+        final DoubleDouble zr = new DoubleDouble(), zi = new DoubleDouble();
+        final DoubleDouble zr2 = new DoubleDouble(), zi2 = new DoubleDouble();
+
+        int iterate(int maxIterations) {
+            zr.set(0);
+            zi.set(0);
+            zr2.set(0);
+            zi2.set(0);
+
+            int iterations = 0;
+            //The escape test only needs the leading doubles
+            while (zr2.hi + zi2.hi < 4 && iterations < maxIterations) {
+                //(a+bi)^2 = a^2 - b^2 + 2abi, zr2 and zi2 are a^2 and b^2 from the previous step
+                zi.multiply(zr).twice().add(ci);
+                zr.set(zr2).subtract(zi2).add(cr);
+                zr2.set(zr).square();
+                zi2.set(zi).square();
+                iterations++;
+            }
+            return iterations;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package mandelbrot;
+
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * The inner escape-time loop, iterating z = z^2 + c until |z| > 2 or the iteration limit is reached.
+ * Returns the number of iterations taken, or the limit itself for points that never escape. Kernels of other
+ * {@link Formula}s iterate theirs; {@link #mandelbrot} and the row methods then take the pixels to be whatever
+ * the formula's pixels are.
+ * <p>
+ * Kernels are stateless and shared between the engine's worker threads. The row methods are what the engine
+ * calls; subclasses override them when they can do better than one {@link #mandelbrot} call per pixel.
+ */
+public abstract class EscapeKernel {
+    //Built from the separate vector source root, only usable when jdk.incubator.vector is present
+    static final String VECTOR_KERNEL = "mandelbrot.VectorKernel";
+
+    //The SIMD kernel if it is on the classpath and the vector module is available, the scalar one otherwise
+    public static EscapeKernel createDefault() {
+        try {
+            return (EscapeKernel) Class.forName(VECTOR_KERNEL).getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            return new PrimitiveKernel();
+        } catch (LinkageError e) {
+            //Class is there but the vector module isn't
+            return new PrimitiveKernel();
+        } catch (UnsupportedOperationException e) {
+            return new PrimitiveKernel();
+        } catch (InvocationTargetException e) {
+            //The constructor turns down platforms without SIMD lanes for doubles
+            if (e.getCause() instanceof UnsupportedOperationException || e.getCause() instanceof LinkageError)
+                return new PrimitiveKernel();
+            throw new IllegalStateException("Can't create " + VECTOR_KERNEL, e.getCause());
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Can't create " + VECTOR_KERNEL, e);
+        } catch (InstantiationException e) {
+            throw new IllegalStateException("Can't create " + VECTOR_KERNEL, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Can't create " + VECTOR_KERNEL, e);
+        }
+    }
+
+    //What the kernel iterates. The orbit methods and the engine's deeper precision tiers are for the Mandelbrot set only.
+    public Formula getFormula() {
+        return Formula.MANDELBROT;
+    }
+
+    //Mandelbrot set, z starts at 0 and c is the point
+    public abstract int mandelbrot(double cx, double cy, int maxIterations);
+
+    //Julia set, z starts at the point and c is fixed
+    public abstract int julia(double zx, double zy, double cx, double cy, int maxIterations);
+
+    //Fills count pixels of row y starting at column x, writing into the row-major buffer of the viewport
+    public void mandelbrotRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations) {
+        final double cy = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        for (int i = x; i < x + count; i++) {
+            iterations[offset + i] = mandelbrot(viewport.calculateX(i), cy, maxIterations);
+        }
+    }
+
+    //Carries the orbit of c on from z = zr[i] + zi[i] i, which has taken `from` steps without escaping, up to the
+    //limit and returns the count. Where that is the limit, z after the last step is left in zr[i] and zi[i], or
+    //NaN if the point was proven interior. Elsewhere they are undefined. No interior checks in this one.
+    public int mandelbrotOrbit(double cx, double cy, double[] zr, double[] zi, int i, int from, int maxIterations) {
+        double r = zr[i], im = zi[i];
+        double r2 = r * r, i2 = im * im;
+        int iterations = from;
+        while (r2 + i2 < 4 && iterations < maxIterations) {
+            im = 2 * r * im + cy;
+            r = r2 - i2 + cx;
+            r2 = r * r;
+            i2 = im * im;
+            iterations++;
+        }
+        zr[i] = r;
+        zi[i] = im;
+        return iterations;
+    }
+
+    //Counts as mandelbrotRow, and keeps the orbits as mandelbrotOrbit does, zr and zi indexed from column x
+    public void mandelbrotRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations,
+                              double[] zr, double[] zi) {
+        final double cy = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        for (int j = 0; j < count; j++) {
+            zr[j] = 0;
+            zi[j] = 0;
+            iterations[offset + x + j] = mandelbrotOrbit(viewport.calculateX(x + j), cy, zr, zi, j, 0, maxIterations);
+        }
+    }
+
+    //Counts as mandelbrotRow, plus smooth escape values for continuous colouring (see Palette). Escaped pixels
+    //are iterated a second time for their fraction, points that don't escape get NaN. Plain doubles only.
+    public void mandelbrotSmoothRow(Viewport viewport, int y, int x, int count, int maxIterations,
+                                    int[] iterations, float[] smooth) {
+        mandelbrotRow(viewport, y, x, count, maxIterations, iterations);
+        smoothRow(viewport, y, x, count, maxIterations, iterations, smooth);
+    }
+
+    //Smooth escape value of the pixel at (x, y), which took iterations to escape, see Palette
+    public double smoothValue(double x, double y, int iterations) {
+        return escapeValue(x, y, iterations);
+    }
+
+    //The smooth values of a span whose counts are in
+    static void smoothRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations, float[] smooth) {
+        final double cy = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        for (int i = offset + x; i < offset + x + count; i++) {
+            smooth[i] = iterations[i] < maxIterations
+                    ? (float) escapeValue(viewport.calculateX(i - offset), cy, iterations[i]) : Float.NaN;
+        }
+    }
+
+    //Renormalized count n + 1 - log2(ln|z_n|). Taken a few steps past the escape, where |z| is large enough
+    //for the approximation to hold, and corrected for those steps since every step doubles ln|z|.
+    static double escapeValue(double cx, double cy, int iterations) {
+        final int extra = 3;
+        double zr = 0, zi = 0;
+        for (int i = 0; i < iterations + extra; i++) {
+            double t = zr * zr - zi * zi + cx;
+            zi = 2 * zr * zi + cy;
+            zr = t;
+        }
+        double logModulus = 0.5 * Math.log(zr * zr + zi * zi);
+        return iterations + 1 + extra - Math.log(logModulus) / Math.log(2);
+    }
+
+    public void juliaRow(Viewport viewport, double cx, double cy, int y, int x, int count, int maxIterations, int[] iterations) {
+        final double zy = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        for (int i = x; i < x + count; i++) {
+            iterations[offset + i] = julia(viewport.calculateX(i), zy, cx, cy, maxIterations);
+        }
+    }
+}
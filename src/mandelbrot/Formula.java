@@ -0,0 +1,177 @@
+package mandelbrot;
+
+import java.util.Locale;
+
+/**
+ * What the escape loop iterates: z = z^2 + c for the Mandelbrot set, z^n + c for the Multibrots, the Burning
+ * Ship and the Tricorn. Every formula also has Julia sets, {@link #julia} gives the formula whose pixels are the
+ * starting z with c fixed, so the engine renders them like any other frame.
+ * <p>
+ * Each formula has a final kernel class with its escape loop written out, and the row loops shared in
+ * {@link FormulaKernel} inline it per class. They stay allocation-free however many formulas a JVM renders,
+ * and keep up with the hand-written z^2 + c loop of {@link PrimitiveKernel}.
+ * <p>
+ * Only {@link #MANDELBROT} zooms past double precision, keeps orbits for raising the limit and renders in
+ * {@link RenderMode#SUBDIVISION}; the other formulas always render tiled with doubles.
+ */
+public abstract class Formula {
+    public static final Formula MANDELBROT = new Formula("mandelbrot", 2) {
+        //The vector kernel when it is there
+        @Override
+        public EscapeKernel createKernel() {
+            return EscapeKernel.createDefault();
+        }
+
+        @Override
+        EscapeKernel createKernel(boolean interiorChecks, Formula formula) {
+            return formula == this ? new PrimitiveKernel(interiorChecks) : new QuadraticJuliaKernel(formula, interiorChecks);
+        }
+    };
+
+    public static final Formula TRICORN = new Formula("tricorn", 2) {
+        @Override
+        EscapeKernel createKernel(boolean interiorChecks, Formula formula) {
+            return new TricornKernel(formula, interiorChecks);
+        }
+    };
+
+    public static final Formula BURNING_SHIP = new Formula("burningship", 2) {
+        @Override
+        EscapeKernel createKernel(boolean interiorChecks, Formula formula) {
+            return new BurningShipKernel(formula, interiorChecks);
+        }
+    };
+
+    //Highest Multibrot power, the loop does one multiplication per power
+    static final int MAX_POWER = 64;
+
+    final String name;
+    //Power of z, how fast |z| grows once it escapes, for smooth colouring
+    final int degree;
+
+    Formula(String name, int degree) {
+        this.name = name;
+        this.degree = degree;
+    }
+
+    //z^power + c, power 2 is the Mandelbrot set
+    public static Formula multibrot(final int power) {
+        if (power < 2 || power > MAX_POWER)
+            throw new IllegalArgumentException("Multibrot power must be 2 to " + MAX_POWER + ": " + power);
+        if (power == 2)
+            return MANDELBROT;
+        return new Formula("multibrot" + power, power) {
+            @Override
+            EscapeKernel createKernel(boolean interiorChecks, Formula formula) {
+                return new MultibrotKernel(formula, power, interiorChecks);
+            }
+        };
+    }
+
+    //Reads getName back: mandelbrot, tricorn, burningship or multibrotN, then julia cx cy for a Julia set
+    public static Formula forName(String name) {
+        String[] parts = name.trim().toLowerCase(Locale.ROOT).split("\\s+");
+        Formula formula;
+        if (parts[0].equals(MANDELBROT.name))
+            formula = MANDELBROT;
+        else if (parts[0].equals(TRICORN.name))
+            formula = TRICORN;
+        else if (parts[0].equals(BURNING_SHIP.name))
+            formula = BURNING_SHIP;
+        else if (parts[0].startsWith("multibrot"))
+            formula = multibrot(parseInt(parts[0].substring("multibrot".length()), name));
+        else
+            throw new IllegalArgumentException("Unknown formula " + name
+                    + ", expected mandelbrot, tricorn, burningship or multibrotN");
+        if (parts.length == 1)
+            return formula;
+        if (parts.length != 4 || !parts[1].equals("julia"))
+            throw new IllegalArgumentException("Formula must be NAME [julia CX CY]: " + name);
+        try {
+            return formula.julia(Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number in " + name);
+        }
+    }
+
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a Multibrot power in " + name);
+        }
+    }
+
+    //Names the formula so forName gives it back
+    public String getName() {
+        return name;
+    }
+
+    public int getDegree() {
+        return degree;
+    }
+
+    //The formula a Julia set is of, this one for the formulas themselves
+    public Formula getBase() {
+        return this;
+    }
+
+    public boolean isJulia() {
+        return false;
+    }
+
+    //The Julia set of this formula at c = cx + cy i, its pixels are where z starts
+    public Formula julia(double cx, double cy) {
+        return new Julia(this, cx, cy);
+    }
+
+    //A kernel with interior checks, the fastest there is for the formula
+    public EscapeKernel createKernel() {
+        return createKernel(true);
+    }
+
+    public EscapeKernel createKernel(boolean interiorChecks) {
+        return createKernel(interiorChecks, this);
+    }
+
+    //A kernel iterating this formula that reports formula, which is this one or a Julia set of it
+    abstract EscapeKernel createKernel(boolean interiorChecks, Formula formula);
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    //Pixels are z0 and c stays put
+    static final class Julia extends Formula {
+        final Formula base;
+        final double cx, cy;
+
+        Julia(Formula base, double cx, double cy) {
+            super(base.name + " julia " + cx + " " + cy, base.degree);
+            this.base = base;
+            this.cx = cx;
+            this.cy = cy;
+        }
+
+        @Override
+        public Formula getBase() {
+            return base;
+        }
+
+        @Override
+        public boolean isJulia() {
+            return true;
+        }
+
+        @Override
+        public Formula julia(double cx, double cy) {
+            return base.julia(cx, cy);
+        }
+
+        @Override
+        EscapeKernel createKernel(boolean interiorChecks, Formula formula) {
+            return base.createKernel(interiorChecks, formula);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package mandelbrot;
+
+/**
+ * What the kernels of {@link Formula}s share, other than the plain Mandelbrot set's. Subclasses give the escape
+ * loop, {@link #iterate}, and the row loops here run it over the pixels. Every final subclass overrides
+ * {@link #mandelbrotRow} and {@link #juliaRow} with a call to these: compiled there the receiver is exactly that
+ * class, so the JIT inlines its iterate into the row loop however many formulas the JVM renders. Without the
+ * overrides the loops here call iterate through the vtable for every pixel, which cost short Julia orbits about
+ * 5%.
+ * <p>
+ * Pixels are c, with z starting at 0, or for a Julia set z0, with c fixed. Orbits are only kept for the Mandelbrot
+ * set, the engine never asks these kernels for them.
+ */
+abstract class FormulaKernel extends EscapeKernel {
+    final Formula formula;
+    final boolean interiorChecks;
+    //Pixels are z0 of the Julia set of c = juliaX + juliaY i
+    final boolean julia;
+    final double juliaX, juliaY;
+    //Steps past the escape before the smooth value is taken, fewer for high powers so |z| doesn't overflow
+    final int smoothSteps;
+
+    FormulaKernel(Formula formula, boolean interiorChecks) {
+        this.formula = formula;
+        this.interiorChecks = interiorChecks;
+        this.julia = formula.isJulia();
+        this.juliaX = julia ? ((Formula.Julia) formula).cx : 0;
+        this.juliaY = julia ? ((Formula.Julia) formula).cy : 0;
+        this.smoothSteps = smoothSteps(formula.degree);
+    }
+
+    @Override
+    public Formula getFormula() {
+        return formula;
+    }
+
+    public boolean hasInteriorChecks() {
+        return interiorChecks;
+    }
+
+    //One pixel from z0 with c, to the escape or maxIterations, with cycle detection when interiorChecks is on
+    abstract int iterate(double zr, double zi, double cr, double ci, int maxIterations);
+
+    @Override
+    public final int mandelbrot(double x, double y, int maxIterations) {
+        return julia ? iterate(x, y, juliaX, juliaY, maxIterations) : iterate(0, 0, x, y, maxIterations);
+    }
+
+    @Override
+    public final int julia(double zx, double zy, double cx, double cy, int maxIterations) {
+        return iterate(zx, zy, cx, cy, maxIterations);
+    }
+
+    @Override
+    public void mandelbrotRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations) {
+        final double py = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        for (int i = x; i < x + count; i++) {
+            iterations[offset + i] = mandelbrot(viewport.calculateX(i), py, maxIterations);
+        }
+    }
+
+    @Override
+    public final void mandelbrotSmoothRow(Viewport viewport, int y, int x, int count, int maxIterations,
+                                          int[] iterations, float[] smooth) {
+        mandelbrotRow(viewport, y, x, count, maxIterations, iterations);
+        final double py = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        for (int i = offset + x; i < offset + x + count; i++) {
+            smooth[i] = iterations[i] < maxIterations
+                    ? (float) smoothValue(viewport.calculateX(i - offset), py, iterations[i]) : Float.NaN;
+        }
+    }
+
+    @Override
+    public void juliaRow(Viewport viewport, double cx, double cy, int y, int x, int count, int maxIterations,
+                               int[] iterations) {
+        final double zy = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        for (int i = x; i < x + count; i++) {
+            iterations[offset + i] = iterate(viewport.calculateX(i), zy, cx, cy, maxIterations);
+        }
+    }
+
+    @Override
+    public int mandelbrotOrbit(double cx, double cy, double[] zr, double[] zi, int i, int from, int maxIterations) {
+        throw new IllegalStateException("Orbits are only kept for the Mandelbrot set, not " + formula);
+    }
+
+    @Override
+    public void mandelbrotRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations,
+                              double[] zr, double[] zi) {
+        throw new IllegalStateException("Orbits are only kept for the Mandelbrot set, not " + formula);
+    }
+
+    //Renormalized count as EscapeKernel.escapeValue, from z smoothSteps steps past the escape. Every step
+    //multiplies ln|z| by the degree.
+    final double renormalize(double zr, double zi, int iterations) {
+        double logModulus = 0.5 * Math.log(zr * zr + zi * zi);
+        return iterations + 1 + smoothSteps - Math.log(logModulus) / Math.log(formula.degree);
+    }
+
+    //|z| is below about 2^degree when it escapes and k more steps take it to 2^(degree^(k + 1)), which has to
+    //stay well inside a double. 3 steps at most, as EscapeKernel does for z^2.
+    static int smoothSteps(int degree) {
+        int steps = 0;
+        for (double growth = (double) degree * degree; steps < 3 && growth < 1000; growth *= degree)
+            steps++;
+        return steps;
+    }
+}
@@ -0,0 +1,171 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * The iteration counts of one viewport, kept together with the viewport they were computed for and the
+ * {@link PixelMask} of which of them are in. Rendering a buffer through
+ * {@link RenderEngine#submit(Viewport, int, int[], PixelMask, int, RenderListener)} only computes what the mask
+ * is missing.
+ * <p>
+ * {@link #reproject} starts the buffer of the next viewport from this one. Every new pixel that lands exactly on
+ * a known pixel of the old grid gets its count copied, which after an integer-pixel pan is everything but the
+ * exposed strips, and after zooming by a power of two is a quarter of the frame.
+ * <p>
+ * A buffer can also hold smooth escape values for {@link Palette}, NaN where a pixel has none.
+ * <p>
+ * With {@link #captureOrbits} the render also keeps where the orbits of the pixels that didn't escape stopped,
+ * and {@link #raise} then starts the buffer of a higher limit on the same viewport from there. Escaped pixels
+ * keep their counts, proven interior ones stay at the limit and the rest carry on from their last z.
+ */
+public final class FrameBuffer {
+    //How far from an old pixel centre a new one may land, in old pixels, and still count as the same sample
+    static final double EPSILON = 1e-6;
+
+    final Viewport viewport;
+    final int numIterations;
+    final int[] iterations;
+    final float[] smooth;
+    final PixelMask known;
+    //Filled by the render when set, see captureOrbits
+    OrbitState orbits;
+    //Orbits of the buffer this one was raised from, continued by the render before anything else
+    OrbitState resume;
+
+    public FrameBuffer(Viewport viewport, int numIterations) {
+        this(viewport, numIterations, false);
+    }
+
+    public FrameBuffer(Viewport viewport, int numIterations, boolean smooth) {
+        this.viewport = viewport;
+        this.numIterations = numIterations;
+        this.iterations = new int[viewport.getArea()];
+        this.known = new PixelMask(viewport.width, viewport.height);
+        if (smooth) {
+            this.smooth = new float[viewport.getArea()];
+            Arrays.fill(this.smooth, Float.NaN);
+        } else {
+            this.smooth = null;
+        }
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    public int getNumIterations() {
+        return numIterations;
+    }
+
+    public int[] getIterations() {
+        return iterations;
+    }
+
+    //Null unless the buffer was made with smooth values
+    public float[] getSmooth() {
+        return smooth;
+    }
+
+    public PixelMask getKnown() {
+        return known;
+    }
+
+    //Keeps the orbits of the pixels that run out of iterations, up to maxBytes, call before rendering
+    public void captureOrbits(long maxBytes) {
+        orbits = new OrbitState(iterations.length, numIterations, maxBytes);
+    }
+
+    public OrbitState getOrbits() {
+        return orbits;
+    }
+
+    //Whether raise can carry this buffer's orbits on to the limit. Read only once the render is done.
+    public boolean canRaise(int numIterations) {
+        return numIterations > this.numIterations && orbits != null && !orbits.isOverflowed();
+    }
+
+    //A buffer for the same viewport at a higher limit, rendering it only iterates what this one left open. It
+    //captures orbits with the same budget as this one.
+    public FrameBuffer raise(int numIterations) {
+        if (!canRaise(numIterations))
+            throw new IllegalStateException("No orbits to raise the limit from " + this.numIterations
+                    + " to " + numIterations);
+        FrameBuffer frame = new FrameBuffer(viewport, numIterations, smooth != null);
+        frame.orbits = new OrbitState(iterations.length, numIterations,
+                (long) orbits.maxEntries * OrbitState.ENTRY_BYTES);
+        for (int p = 0; p < iterations.length; p++) {
+            if (!known.known[p])
+                continue;
+            if (iterations[p] < this.numIterations) {
+                frame.iterations[p] = iterations[p];
+                frame.known.known[p] = true;
+                if (smooth != null)
+                    frame.smooth[p] = smooth[p];
+            } else if (orbits.interior[p]) {
+                frame.iterations[p] = numIterations;
+                frame.known.known[p] = true;
+                frame.orbits.interior[p] = true;
+            }
+        }
+        //Run-out pixels stay unknown, the resume pass fills them in and the tiles whatever it doesn't have
+        frame.resume = orbits.sorted(iterations.length);
+        return frame;
+    }
+
+    public FrameBuffer reproject(Viewport next, int numIterations) {
+        return reproject(next, numIterations, false);
+    }
+
+    //A buffer for next with the samples of this one that it shares. Read this buffer only once its render is done.
+    //A buffer that wants smooth values only takes samples from one that has them.
+    public FrameBuffer reproject(Viewport next, int numIterations, boolean smooth) {
+        FrameBuffer frame = new FrameBuffer(next, numIterations, smooth);
+        //Counts at the limit mean "didn't escape within it", that changes with the limit
+        if (numIterations != this.numIterations || (smooth && this.smooth == null))
+            return frame;
+
+        double ratioX = next.pixelWidth / viewport.pixelWidth;
+        double ratioY = next.pixelHeight / viewport.pixelHeight;
+
+        //Old column = offset + ratio * new column. Rows go the other way to the imaginary axis.
+        double offsetX = shift(next.centreX, viewport.centreX, viewport.pixelWidth)
+                + viewport.width / 2.0 - ratioX * next.width / 2.0;
+        double offsetY = -shift(next.centreY, viewport.centreY, viewport.pixelHeight)
+                + viewport.height / 2.0 - ratioY * next.height / 2.0;
+        int[] columns = mapAxis(offsetX, ratioX, next.width, viewport.width);
+        int[] rows = mapAxis(offsetY, ratioY, next.height, viewport.height);
+
+        for (int y = 0; y < next.height; y++) {
+            if (rows[y] < 0)
+                continue;
+            int from = rows[y] * viewport.width, to = y * next.width;
+            for (int x = 0; x < next.width; x++) {
+                int old = columns[x];
+                if (old >= 0 && known.known[from + old]) {
+                    frame.iterations[to + x] = iterations[from + old];
+                    frame.known.known[to + x] = true;
+                    if (smooth)
+                        frame.smooth[to + x] = this.smooth[from + old];
+                }
+            }
+        }
+        return frame;
+    }
+
+    //Distance between the centres in old pixels, the subtraction is exact so this holds at any zoom
+    private static double shift(BigDecimal next, BigDecimal old, double pixelSize) {
+        return next.subtract(old).doubleValue() / pixelSize;
+    }
+
+    //For every new index the old index it lands on, or -1 if it falls between old pixels or outside them
+    private static int[] mapAxis(double offset, double ratio, int size, int oldSize) {
+        int[] map = new int[size];
+        for (int i = 0; i < size; i++) {
+            double old = offset + ratio * i;
+            long nearest = Math.round(old);
+            map[i] = Math.abs(old - nearest) < EPSILON && nearest >= 0 && nearest < oldSize ? (int) nearest : -1;
+        }
+        return map;
+    }
+}
@@ -5,10 +5,10 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBufferInt;
+import javax.management.JMException;
 import java.io.File;
 import java.io.IOException;
 import java.text.DecimalFormat;
-import java.util.ArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -62,20 +62,51 @@ class RenderPanel extends JPanel{
     final int width, height, area;
     int numIterations = 100;
 
-    //Threading
-    int[] indexes;
-    ArrayList<Thread> threads = new ArrayList<Thread>();
-    volatile  long startTime, endTime;
+    //Threading, the engine is shared by every render of this panel. The current job and its generation are
+    //guarded by imageLock, which is also held while tiles are painted
+    final RenderEngine engine = new RenderEngine();
+    final Object imageLock = new Object();
+    RenderJob job;
+    Rendering rendering;
+    //Latest frame no job writes to any more, new frames copy what they share with it. Guarded by imageLock.
+    FrameBuffer settled;
+    //Finished frames and julia previews, for views that come back. Deep zoom tiles also go to disk.
+    final TileCache tileCache = new TileCache(64L << 20, openTileStore());
+    volatile int renderGeneration;
+
+    //Colouring is a pass of its own over the counts, changing it doesn't render anything
+    volatile Palette palette = Palette.HUE;
+    volatile boolean smoothColouring;
+
+    //Strides of the progressive passes, 1/16 of the pixels, then 1/4, then all of them
+    static final int[] PASSES = {4, 2, 1};
+    //Orbits a frame keeps of its pixels that don't escape, so raising the limit carries on from there
+    static final long ORBIT_BYTES = 64L << 20;
     AtomicInteger a = new AtomicInteger();
 
     //Bounds set, default is real axis -2 to 2, imaginary -1.6 to 6
-    double xMin = -2.0, xMax = 2.0;
-    double yMax = 1.6, yMin = -1.6;
+    //Zooming moves the viewport's exact centre, so it keeps working past the precision of the double bounds
+    Viewport viewport;
 
-    //Code for rectangular selection
-    Point mouseStart, mouseEnd;
+    //Julia set preview of the point under the mouse
+    final JuliaPreview juliaPreview;
+
+    //Code for rectangular selection, and the last point of a pan with the right button
+    Point mouseStart, mouseEnd, panPoint;
     Rectangle rectangle;
 
+    //The directory is taken from -Dmandelbrot.tiles, ~/.mandelbrot/tiles by default. Without it tiles stay in memory.
+    static TileStore openTileStore() {
+        File directory = new File(System.getProperty("mandelbrot.tiles",
+                new File(System.getProperty("user.home"), ".mandelbrot" + File.separator + "tiles").getPath()));
+        try {
+            return new TileStore(directory);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
     public int getNumIterations() {
         return numIterations;
     }
@@ -86,20 +117,16 @@ class RenderPanel extends JPanel{
         this.height = inputHeight;
         this.area = inputWidth * inputHeight;
         setPreferredSize(new Dimension(width,height));
+        viewport = new Viewport(-2.0, 2.0, -1.6, 1.6, width, height);
 
         bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        juliaPreview = new JuliaPreview((width * 25) / 100, (height * 25) / 100);
 
-        //Does it as random, so it shows multi threading is utilised
-        indexes = new int[area];
-        for (int i = 0; i < area; i++)
-            indexes[i] = i;
-
-        for (int i = 0; i < area; i++) {
-            int j = (int) (Math.random() * area);
-
-            int t = indexes[i];
-            indexes[i] = indexes[j];
-            indexes[j] = t;
+        //Render metrics for jconsole and friends
+        try {
+            engine.registerMBean("panel");
+        } catch (JMException e) {
+            System.err.println("Render metrics not on JMX: " + e);
         }
 
         //Default render
@@ -110,13 +137,22 @@ class RenderPanel extends JPanel{
         addMouseListener(new MouseAdapter() {
             @Override
             public void mousePressed(MouseEvent e) {
-                mouseStart = e.getPoint();
+                if (SwingUtilities.isRightMouseButton(e))
+                    panPoint = e.getPoint();
+                else
+                    mouseStart = e.getPoint();
             }
 
             @Override
             public void mouseReleased(MouseEvent e) {
-                //Removes the selection when released
+                if (SwingUtilities.isRightMouseButton(e)) {
+                    panPoint = null;
+                    return;
+                }
+                //Removes the selection when released, a click without a drag has nothing to zoom to
                 repaint();
+                if (rectangle == null)
+                    return;
                 calculateZoom();
                 renderMandel(numIterations);
                 //Removes the object once mouse is released
@@ -124,11 +160,28 @@ class RenderPanel extends JPanel{
             }
         });
 
+        //Wheel zooms by powers of two around the pointer, up is in
+        addMouseWheelListener(new MouseWheelListener() {
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (e.getWheelRotation() != 0)
+                    zoomAround(e.getX(), e.getY(), e.getWheelRotation() < 0);
+            }
+        });
+
         //Mouse adapter for dragging
         addMouseMotionListener(new MouseAdapter() {
             @Override
             public void mouseDragged(MouseEvent e) {
                 super.mouseDragged(e);
+                //Right button drags the image along with the pointer
+                if (SwingUtilities.isRightMouseButton(e)) {
+                    if (panPoint != null && !panPoint.equals(e.getPoint())) {
+                        pan(panPoint.x - e.getX(), panPoint.y - e.getY());
+                        panPoint = e.getPoint();
+                    }
+                    return;
+                }
                 mouseEnd = e.getPoint();
 
                 //Only if there is a difference in mouse start and mouse end, draw a rectangle selection
@@ -161,208 +214,361 @@ class RenderPanel extends JPanel{
         });
     }
 
-    public synchronized float getProgress() {
+    //Read from the timer without any lock, the counter is atomic
+    public float getProgress() {
         return (float) a.get() / area;
     }
 
     //
     public void calculateZoom(){
-        double prevMinX = calculateX(rectangle.x);
-        double prevMinY = calculateY(rectangle.y + rectangle.height);
-
-        double prevMaxX = calculateX(rectangle.x + rectangle.width);
-        double prevMaxY = calculateY(rectangle.y);
-
-        xMin = prevMinX;
-        yMin = prevMinY;
-        yMax = prevMaxY;
-        xMax = prevMaxX;
-//        System.out.println(xMin + "\t" + yMin);
-//        System.out.println(xMax + "\t" + yMax);
+        viewport = viewport.zoom(rectangle.x, rectangle.y, rectangle.width, rectangle.height);
     }
 
 
     public double calculateX(int x) {
-        //xMax and xMin is set as as the boundary values
-        return xMin + x * ((xMax - xMin) / width);
+        return viewport.calculateX(x);
     }
 
     public double calculateY(int y) {
-        //yMax and yMin is set as the boundary values
-        return yMax - y * ((yMax - yMin) / height);
+        return viewport.calculateY(y);
     }
 
-    //Multi thread code
-    class Rendering extends Thread {
+    //Paints the tiles of one frame into the image as they complete. Tiles of a frame that has been
+    //superseded are dropped under the image lock, so a late tile can never overwrite the newer frame.
+    //A frame is rendered in passes over every PASSES[i]-th row and column, each pass sharing the buffer and
+    //mask with the ones before it, so no pixel is iterated twice and a coarse image is up almost at once.
+    class Rendering {
+        final int generation;
+        final FrameBuffer frame;
+        final Viewport viewport;
         final int nIter;
-
-        public Rendering(int numIterations) {
-            this.nIter = numIterations;
+        final int[] iterations;
+        final float[] smooth;
+        final PixelMask known;
+
+        public Rendering(int generation, FrameBuffer frame) {
+            this.generation = generation;
+            this.frame = frame;
+            this.viewport = frame.getViewport();
+            this.nIter = frame.getNumIterations();
+            this.iterations = frame.getIterations();
+            this.smooth = frame.getSmooth();
+            this.known = frame.getKnown();
         }
 
-        @Override
-        public void run() {
-            //Extract the data buffered, and store it into int array, access it and draw it ourselves which is faster
+        //Paints what the frame already has with the current palette, pixels it doesn't are black until the
+        //first pass reaches them. Called with imageLock held.
+        void paintKnown() {
             final int[] data = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
-
-            //Code to generate colors based on number of iterations
-            int[] colors = new int[nIter];
-            for (int j = 0; j < nIter; j++) {
-                colors[j] = Color.HSBtoRGB(j / 256f, 1, j / (j + 8f));
+            palette.paint(iterations, smoothColouring ? smooth : null, nIter, data, width, 0, 0, width, height);
+            for (int i = 0; i < area; i++) {
+                if (!known.known[i])
+                    data[i] = 0;
             }
-            int idx;
-            while((idx = a.getAndIncrement()) < area && !currentThread().isInterrupted()) {
-                int i = indexes[idx];
-
-                //convert 1d into 2d
-                final int x = i % width;
-                final int y = i / width;
-
-                //convert 2d into complex
-                final double cx = calculateX(x);
-                final double cy = calculateY(y);
+            repaint();
+        }
 
-                //init complex values
-                Complex Zc = new Complex(cx, cy);
-                Complex Zn = new Complex(0, 0);
+        //Called with imageLock held
+        RenderJob start(int pass) {
+            return engine.submit(frame, PASSES[pass], new Pass(pass));
+        }
 
-                int iterations = 0;
+        class Pass implements RenderListener {
+            final int pass, stride;
 
-                //If have not escape the mandelbrot set ie, < 4, and iterations lesser than number defined, pass it again
-                while (Zn.modSquared() < 4 && iterations < nIter && !currentThread().isInterrupted()) {
-                    Zn.square();
-                    Zn.add(Zc);
-                    iterations++;
-                }
+            Pass(int pass) {
+                this.pass = pass;
+                this.stride = PASSES[pass];
+            }
 
+            @Override
+            public void tileRendered(int x, int y, int w, int h) {
+                //Extract the data buffered, and store it into int array, access it and draw it ourselves which is faster
+                final int[] data = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
 
-                if(iterations < nIter) {
-                    data[i] = colors[iterations];
-                }else{
-                    data[i] = 0;
+                synchronized (imageLock) {
+                    if (generation != renderGeneration)
+                        return;
+                    if (stride == 1) {
+                        palette.paint(iterations, smoothColouring ? smooth : null, nIter, data, width, x, y, w, h);
+                        a.addAndGet(w * h);
+                    } else {
+                        //Each sample stands in for the stride x stride block below and right of it, except
+                        //for pixels an earlier pass already has
+                        for (int row = (y + stride - 1) / stride * stride; row < y + h; row += stride) {
+                            for (int col = (x + stride - 1) / stride * stride; col < x + w; col += stride) {
+                                int color = palette.colour(iterations[row * width + col], nIter);
+                                for (int by = row; by < Math.min(row + stride, height); by++) {
+                                    for (int bx = col; bx < Math.min(col + stride, width); bx++) {
+                                        if ((by == row && bx == col) || !known.isKnown(bx, by))
+                                            data[by * width + bx] = color;
+                                    }
+                                }
+                            }
+                        }
+                    }
                 }
+                repaint(x, y, w + stride, h + stride);
+            }
 
-                if (x == 0){
-                    repaint();
+            @Override
+            public void renderFinished(RenderJob finished) {
+                synchronized (imageLock) {
+                    if (generation != renderGeneration)
+                        return;
+                    if (pass + 1 < PASSES.length) {
+                        job = start(pass + 1);
+                        return;
+                    }
+                    settled = frame;
                 }
+                tileCache.store(frame);
             }
-
-            //Compare end and start time to see how long it takes
-            endTime = System.currentTimeMillis();
-            System.out.println((System.currentTimeMillis() - startTime) / 1000d + " s. to render");
         }
     }
 
+    //Never blocks, the previous job is cancelled and left to drain on the pool. Whatever the new viewport shares
+    //with the last frame that is safe to read is copied instead of computed. Raising the limit on the same
+    //viewport only iterates the pixels that hadn't escaped, in a single full pass.
     public void renderMandel(int numIterations) {
-        a.set(0);
-        //Start timer here to calculate time it takes to render the mandelbrot
-        startTime = System.currentTimeMillis();
-
-        //Interrupt all current threads first before doing anything
-        for (Thread t : threads)
-            t.interrupt();
-
-        //Wait for all the threads for completion
-        for (Thread t : threads)
-            try {
-                t.join();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
+        synchronized (imageLock) {
+            if (job != null) {
+                job.cancel();
+                //A job that is already done can't write to its frame any more, even if it was cut short
+                if (job.isDone())
+                    settled = rendering.frame;
             }
 
-        //Get the number of avaliable threads to render the mandelbrot
-        for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
-            Thread t = new Rendering(numIterations);
-            t.start();
-            threads.add(t);
+            a.set(0);
+
+            FrameBuffer frame;
+            int firstPass = 0;
+            if (settled != null && settled.getViewport() == viewport && settled.canRaise(numIterations)
+                    && (!smoothColouring || settled.getSmooth() != null)) {
+                frame = settled.raise(numIterations);
+                firstPass = PASSES.length - 1;
+            } else {
+                frame = settled != null ? settled.reproject(viewport, numIterations, smoothColouring)
+                        : new FrameBuffer(viewport, numIterations, smoothColouring);
+                tileCache.load(frame);
+                frame.captureOrbits(ORBIT_BYTES);
+            }
+            rendering = new Rendering(++renderGeneration, frame);
+            rendering.paintKnown();
+            job = rendering.start(firstPass);
         }
+    }
 
-//
-//        bufferedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-//        final int[] data = ((DataBufferInt) bufferedImage.getRaster().getDataBuffer()).getData();
-//
-//        this.numIterations = numIterations;
-//
-//        //Code to generate heat mapping colors
-//        colors = new int[numIterations];
-//        for (int j = 0; j < numIterations; j++) {
-//            colors[j] = Color.HSBtoRGB(j / 256f, 1, j / (j + 8f));
-//        }
-//
-//        for (int i = 0; i < area; i++) {
-//
-//            //convert 1d into 2d
-//            final int x = i % width;
-//            final int y = i / width;
-//
-//            //convert 2d into complex
-//            final double cx = calculateX(x);
-//            final double cy = calculateY(y);
-//
-//            //init complex values
-//            Complex Zc = new Complex(cx, cy);
-//            Complex Zn = new Complex(0, 0);
-//
-//            int iterations = 0;
-//
-//            //If have not escape the mandelbrot set ie, < 4, and iterations lesser than number defined, pass it again
-//            while (Zn.modSquared() < 4 && iterations < numIterations) {
-//                Zn.square();
-//                Zn.add(Zc);
-//                iterations++;
-//            }
-//
-//            data[i] = iterations < numIterations ? colors[iterations] : 0;
-//
-//            if(x == width)
-//                repaint();
-//        }
+    //Colours both images again from their counts, nothing is rendered
+    public void setPalette(Palette palette) {
+        this.palette = palette;
+        synchronized (imageLock) {
+            if (rendering != null)
+                rendering.paintKnown();
+        }
+        juliaPreview.recolour();
+    }
+
+    //Turning it off is a recolour, turning it on renders the frame again since counts alone have no fraction
+    public void setSmoothColouring(boolean smooth) {
+        smoothColouring = smooth;
+        synchronized (imageLock) {
+            if (!smooth || rendering == null) {
+                if (rendering != null)
+                    rendering.paintKnown();
+                return;
+            }
+        }
+        renderMandel(numIterations);
+    }
+
+    //Moves the view by whole pixels, the part still on screen is reused
+    public void pan(int dx, int dy) {
+        viewport = viewport.pan(dx, dy);
+        renderMandel(numIterations);
+    }
+
+    //Zooms in or out by a factor of two around the given pixel, a quarter of the frame is reused
+    public void zoomAround(int x, int y, boolean zoomIn) {
+        viewport = viewport.scale(x, y, zoomIn ? 0.5 : 2.0);
+        renderMandel(numIterations);
     }
 
     //Quadratic julia sets are generated by the quadratic mapping  z(n+1) = (zn)^2 + c for fixed c
+    //Never blocks, mouse moves can call this as often as they like (see JuliaPreview)
     public void renderJulia(int numIterations, double complexX, double complexY){
-        //Draw julia set at the top right hand, 25%
-        int width = ((this.width * 25) / 100);
-        int height = ((this.height * 25) / 100);
-        int area = width * height;
-
-        int[] colors = new int[numIterations];
-        for (int j = 0; j < numIterations; j++) {
-            colors[j] = Color.HSBtoRGB(j / 256f, 1, j / (j + 8f));
+        juliaPreview.request(numIterations, complexX, complexY);
+    }
+
+    //Renders the julia set at the top right hand, 25%, on the engine's pool. While a coarse pass is running new
+    //points only replace the pending one, so however fast the mouse moves at most the latest point is waiting.
+    //Each point is first rendered at a quarter of the resolution and then refined to full resolution, a refine
+    //for a point that is no longer wanted is cancelled straight away.
+    class JuliaPreview {
+        static final int COARSE = 4;
+
+        final int width, height;
+        final Viewport fine, coarse;
+        final int[] data;
+        //Reused for every cache lookup, mouse moves don't allocate frames. Guarded by this.
+        final int[] cachedIterations;
+        final PixelMask cachedKnown;
+
+        //Guarded by this, latest is the point the preview should end up showing
+        private Request latest;
+        private RenderJob job;
+        private boolean refining;
+
+        JuliaPreview(int width, int height) {
+            this.width = width;
+            this.height = height;
+            fine = new Viewport(-2.0, 2.0, -1.6, 1.6, width, height);
+            coarse = new Viewport(-2.0, 2.0, -1.6, 1.6, Math.max(1, width / COARSE), Math.max(1, height / COARSE));
+            cachedIterations = new int[fine.getArea()];
+            cachedKnown = new PixelMask(width, height);
+
+            bufferedImageTwo = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            data = ((DataBufferInt) bufferedImageTwo.getRaster().getDataBuffer()).getData();
         }
 
-        bufferedImageTwo = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        synchronized void request(int numIterations, double complexX, double complexY) {
+            latest = new Request(numIterations, complexX, complexY);
+            if (loadCached(latest)) {
+                if (job != null && refining)
+                    job.cancel();
+                return;
+            }
+            if (job == null || job.isDone()) {
+                startCoarse(latest);
+            } else if (refining) {
+                job.cancel();
+                startCoarse(latest);
+            }
+            //Otherwise the running coarse pass picks up the latest point when it finishes
+        }
 
-        //C is fixed, at the coordinate, user selected point
-        Complex Zc = new Complex(complexX, complexY);
+        //Shows the point straight from the tile cache if all of it is there
+        private boolean loadCached(Request request) {
+            cachedKnown.clear();
+            if (tileCache.loadJulia(fine, request.complexX, request.complexY, request.numIterations, cachedIterations,
+                    cachedKnown) < cachedIterations.length)
+                return false;
+            request.cached = true;
+            request.paint();
+            repaint(juliaX(), 0, width, height);
+            return true;
+        }
 
-        for (int i = 0; i < area; i++) {
-            //convert 1d into 2d
-            final int x = i % width;
-            final int y = i / width;
+        private void startCoarse(Request request) {
+            refining = false;
+            job = engine.submitJulia(coarse, request.complexX, request.complexY, request.numIterations,
+                    new int[coarse.getArea()], request.coarsePass());
+        }
 
-            //convert 2d into complex
-            final double cx = -2.0 + x * (4d / width);
-            final double cy = 1.6 - y * (3.2d / height);
+        //A cancelled refine may still be writing to its buffer, every refine gets its own
+        private void startRefine(Request request) {
+            refining = true;
+            request.fineIterations = new int[fine.getArea()];
+            request.fineKnown = new PixelMask(width, height);
+            job = engine.submitJulia(fine, request.complexX, request.complexY, request.numIterations,
+                    request.fineIterations, request.finePass());
+        }
 
-            //Zn is now with cx and cy
-            Complex Zn = new Complex(cx, cy);
-            int iterations = 0;
+        //Paints the counts the latest point already has with the current palette, nothing is rendered
+        void recolour() {
+            synchronized (this) {
+                if (latest == null)
+                    return;
+                latest.paint();
+            }
+            repaint(juliaX(), 0, width, height);
+        }
 
-            while (Zn.modSquared() < 4 && iterations < numIterations) {
-                Zn.square();
-                Zn.add(Zc);
-                iterations++;
+        //One point c and what has been rendered of it, guarded by the preview
+        class Request {
+            final int numIterations;
+            final double complexX, complexY;
+            //Counts are in cachedIterations
+            boolean cached;
+            int[] coarseIterations;
+            //Set when the refine starts, fineKnown marks the tiles it has done
+            int[] fineIterations;
+            PixelMask fineKnown;
+
+            Request(int numIterations, double complexX, double complexY) {
+                this.numIterations = numIterations;
+                this.complexX = complexX;
+                this.complexY = complexY;
             }
 
-            if (iterations < numIterations) {
-                bufferedImageTwo.setRGB(x, y, colors[iterations]);
-            } else {
-                bufferedImageTwo.setRGB(x, y, Color.BLACK.getRGB());
+            //The whole preview from the best counts there are, every coarse pixel fills a COARSE x COARSE block
+            void paint() {
+                if (cached) {
+                    palette.paint(cachedIterations, null, numIterations, data, width, 0, 0, width, height);
+                    return;
+                }
+                if (coarseIterations == null)
+                    return;
+                int coarseWidth = coarse.getWidth(), coarseHeight = coarse.getHeight();
+                for (int y = 0; y < height; y++) {
+                    int row = Math.min(y / COARSE, coarseHeight - 1) * coarseWidth;
+                    for (int x = 0; x < width; x++) {
+                        int n = fineKnown != null && fineKnown.isKnown(x, y) ? fineIterations[y * width + x]
+                                : coarseIterations[row + Math.min(x / COARSE, coarseWidth - 1)];
+                        data[y * width + x] = palette.colour(n, numIterations);
+                    }
+                }
             }
 
+            RenderListener coarsePass() {
+                return new RenderListener() {
+                    @Override
+                    public void tileRendered(int x, int y, int w, int h) {
+                    }
+
+                    @Override
+                    public void renderFinished(RenderJob job) {
+                        synchronized (JuliaPreview.this) {
+                            if (Request.this != latest) {
+                                if (!latest.cached)
+                                    startCoarse(latest);
+                                return;
+                            }
+                            coarseIterations = job.getIterations();
+                            paint();
+                            startRefine(Request.this);
+                        }
+                        repaint(juliaX(), 0, width, height);
+                    }
+                };
+            }
+
+            RenderListener finePass() {
+                return new RenderListener() {
+                    @Override
+                    public void tileRendered(int x, int y, int w, int h) {
+                        synchronized (JuliaPreview.this) {
+                            if (Request.this != latest)
+                                return;
+                            for (int row = y; row < y + h; row++)
+                                fineKnown.set(row, x, w);
+                            palette.paint(fineIterations, null, numIterations, data, width, x, y, w, h);
+                        }
+                        repaint(juliaX() + x, y, w, h);
+                    }
+
+                    @Override
+                    public void renderFinished(RenderJob job) {
+                        tileCache.storeJulia(fine, complexX, complexY, numIterations, fineIterations, null);
+                    }
+                };
+            }
         }
-        repaint();
+    }
+
+    //Left edge of the julia preview, at 75% of the width
+    int juliaX() {
+        return (width * 75) / 100;
     }
 
     public void paint(Graphics g) {
@@ -370,7 +576,7 @@ class RenderPanel extends JPanel{
         g.drawImage(bufferedImage, 0, 0, null);
 
         //Draw the image specifying to start at 75% of the width for julia set
-        g.drawImage(bufferedImageTwo, ((width * 75) / 100), 0, null);
+        g.drawImage(bufferedImageTwo, juliaX(), 0, null);
 
         //Logic for drawing rectangular selection
         if (rectangle != null) {
@@ -392,6 +598,8 @@ class MandelTextFieldPanel extends JPanel implements ActionListener {
 
     private JProgressBar progressBar;
     private JButton saveImageBtn;
+    private JComboBox<Palette> paletteComboBox;
+    private JCheckBox smoothCheckBox;
     private DefaultComboBoxModel imagesComboBoxModel;
     private JComboBox<RenderValues> imageJComboBox;
 
@@ -457,7 +665,8 @@ class MandelTextFieldPanel extends JPanel implements ActionListener {
             @Override
             public void actionPerformed(ActionEvent e) {
 //                System.out.println("Number of iterations " + Integer.parseInt(iterateTextField.getText()));
-                renderPanel.numIterations = Integer.parseInt(iterateTextField.getText());
+                numIterations = Integer.parseInt(iterateTextField.getText());
+                renderPanel.numIterations = numIterations;
                 renderPanel.renderMandel(numIterations);
                 repaint();
             }
@@ -465,6 +674,27 @@ class MandelTextFieldPanel extends JPanel implements ActionListener {
 
         add(progressBar);
 
+        //PALETTE and SMOOTH, only recolour what is already rendered
+        paletteComboBox = new JComboBox<Palette>(Palette.values());
+        paletteComboBox.setSelectedItem(renderPanel.palette);
+        add(paletteComboBox);
+        paletteComboBox.addItemListener(new ItemListener() {
+            @Override
+            public void itemStateChanged(ItemEvent e) {
+                if (e.getStateChange() == ItemEvent.SELECTED)
+                    renderPanel.setPalette((Palette) e.getItem());
+            }
+        });
+
+        smoothCheckBox = new JCheckBox("Smooth");
+        add(smoothCheckBox);
+        smoothCheckBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                renderPanel.setSmoothColouring(smoothCheckBox.isSelected());
+            }
+        });
+
         add(Box.createHorizontalStrut(5));
         add(new JSeparator(SwingConstants.VERTICAL));
         add(Box.createHorizontalStrut(5));
@@ -516,8 +746,8 @@ class MandelTextFieldPanel extends JPanel implements ActionListener {
                 //Sets the decimal format here
                 DecimalFormat df = new DecimalFormat("#.##");
                 //User selected point
-                final double complexX = renderPanel.xMin + e.getX() * ((renderPanel.xMax - renderPanel.xMin) / renderPanel.width);
-                final double complexY = renderPanel.yMax - e.getY() * ((renderPanel.yMax - renderPanel.yMin) / renderPanel.height);
+                final double complexX = renderPanel.calculateX(e.getX());
+                final double complexY = renderPanel.calculateY(e.getY());
 
                 realTextField.setText(String.valueOf(df.format(complexX)));
                 imagTextField.setText(String.valueOf(df.format(complexY)));
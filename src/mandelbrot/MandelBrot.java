@@ -1,12 +1,27 @@
 package mandelbrot;
 
 import javax.swing.*;
+import java.util.Arrays;
 
 /**
  * Created by Galvin on 2/25/2015.
  */
 public class MandelBrot {
-    public static void main (String[] args) {
+    //With "render" first the arguments go to BatchRenderer, with "worker" to RenderWorker, with "serve" to
+    //TileServer, and no window is opened
+    public static void main (String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("render")) {
+            BatchRenderer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("worker")) {
+            RenderWorker.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("serve")) {
+            TileServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -0,0 +1,9 @@
+package mandelbrot;
+
+/**
+ * Told about every render a {@link RenderEngine} completes, finished or cancelled, with what it did. Called on
+ * a worker thread once the job is done, so implementations must be thread-safe and should return quickly.
+ */
+public interface MetricsListener {
+    void renderCompleted(RenderJob job, RenderStats stats);
+}
@@ -0,0 +1,73 @@
+package mandelbrot;
+
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Carries the orbits a {@link FrameBuffer} kept at a lower limit on to the limit of the job, see
+ * {@link FrameBuffer#raise}. The entries are in pixel order and split into chunks of about
+ * {@link TileRenderer#LEAF_COST} iterations, each chunk copies its orbits so the old state stays as it was and
+ * the same frame can be raised again. Pixels are marked known as they are done. Nothing is reported from here:
+ * the tile pass that follows reports every pixel once, the resumed ones included.
+ */
+class OrbitResumer {
+    //Below this many orbits a chunk isn't split whatever it costs
+    static final int MIN_CHUNK = 64;
+
+    final RenderJob job;
+    final OrbitState resume;
+    final EscapeKernel kernel;
+
+    OrbitResumer(RenderJob job, EscapeKernel kernel) {
+        this.job = job;
+        this.resume = job.resume;
+        this.kernel = kernel;
+    }
+
+    RecursiveAction createTask() {
+        return new Chunk(0, resume.size);
+    }
+
+    class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int from, to;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (job.isCancelled() || from == to)
+                return;
+
+            long cost = (long) (to - from) * (job.numIterations - resume.numIterations);
+            if (to - from > MIN_CHUNK && cost > TileRenderer.LEAF_COST) {
+                int half = (from + to) >>> 1;
+                invokeAll(new Chunk(from, half), new Chunk(half, to));
+                return;
+            }
+
+            Viewport viewport = job.viewport;
+            long start = System.nanoTime();
+            //Only the iterations past the old limit are run here
+            RenderStats.Tally tally = new RenderStats.Tally(job.numIterations - resume.numIterations);
+            double[] zr = Arrays.copyOfRange(resume.zr, from, to), zi = Arrays.copyOfRange(resume.zi, from, to);
+            for (int k = from; k < to; k++) {
+                int p = resume.pixels[k], y = p / viewport.width, x = p % viewport.width;
+                double cx = viewport.calculateX(x), cy = viewport.calculateY(y);
+                int n = kernel.mandelbrotOrbit(cx, cy, zr, zi, k - from, resume.numIterations, job.numIterations);
+                job.iterations[p] = n;
+                tally.count(n - resume.numIterations);
+                if (job.smooth != null)
+                    job.smooth[p] = n < job.numIterations ? (float) EscapeKernel.escapeValue(cx, cy, n) : Float.NaN;
+                job.known.set(y, x, 1);
+            }
+            if (job.orbits != null)
+                job.orbits.record(resume.pixels, from, to - from, job.iterations, zr, zi);
+            job.stats.record(tally, System.nanoTime() - start);
+        }
+    }
+}
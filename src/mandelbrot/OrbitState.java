@@ -0,0 +1,132 @@
+package mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ * Where the orbits of a frame's non-escaped pixels stopped, so raising the iteration limit can carry on from
+ * there instead of starting again at z = 0 (see {@link FrameBuffer#raise}).
+ * <p>
+ * Only pixels that ran out of iterations take space: their index and the real and imaginary part of z after the
+ * last step, in parallel primitive arrays. Pixels proven interior by the kernel's checks never escape at any
+ * limit and only get a flag. Past its byte budget a state stops recording and counts as overflowed, a frame
+ * with an overflowed state is rendered again in full when its limit goes up.
+ */
+public final class OrbitState {
+    //Index plus two doubles
+    static final int ENTRY_BYTES = 20;
+
+    final int numIterations;
+    final int maxEntries;
+    //Flags per pixel of the frame, tiles set distinct elements from different threads. Null for resume lists.
+    final boolean[] interior;
+    //Guarded by this while the frame renders
+    int[] pixels = new int[0];
+    double[] zr = new double[0], zi = new double[0];
+    int size;
+    volatile boolean overflowed;
+
+    public OrbitState(int area, int numIterations, long maxBytes) {
+        this(new boolean[area], numIterations, (int) Math.min(Integer.MAX_VALUE, maxBytes / ENTRY_BYTES));
+    }
+
+    private OrbitState(boolean[] interior, int numIterations, int maxEntries) {
+        this.interior = interior;
+        this.numIterations = numIterations;
+        this.maxEntries = maxEntries;
+    }
+
+    public int getNumIterations() {
+        return numIterations;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    //Bytes held by the orbits, the interior flags not included
+    public synchronized long getBytes() {
+        return (long) pixels.length * ENTRY_BYTES;
+    }
+
+    //For frames that can't keep orbits, like zooms past double precision
+    void invalidate() {
+        overflowed = true;
+    }
+
+    //Takes a span the kernel has just iterated: run-out pixels are recorded, proven interior ones flagged.
+    //zr and zi are indexed from the span's first pixel, NaN where the kernel proved the point interior.
+    void record(int first, int count, int[] iterations, double[] spanZr, double[] spanZi) {
+        record(null, first, count, iterations, spanZr, spanZi);
+    }
+
+    //Same for pixels that aren't next to each other, pixel j is at index pixelIndex[first + j] of the frame
+    void record(int[] pixelIndex, int first, int count, int[] iterations, double[] spanZr, double[] spanZi) {
+        int runOut = 0;
+        for (int j = 0; j < count; j++) {
+            int p = pixelIndex == null ? first + j : pixelIndex[first + j];
+            if (iterations[p] < numIterations)
+                continue;
+            if (spanZr[j] != spanZr[j])
+                interior[p] = true;
+            else
+                runOut++;
+        }
+        if (runOut > 0)
+            append(pixelIndex, first, count, iterations, spanZr, spanZi, runOut);
+    }
+
+    private synchronized void append(int[] pixelIndex, int first, int count, int[] iterations, double[] spanZr,
+                                     double[] spanZi, int runOut) {
+        if (overflowed)
+            return;
+        if ((long) size + runOut > maxEntries) {
+            overflowed = true;
+            pixels = new int[0];
+            zr = zi = new double[0];
+            size = 0;
+            return;
+        }
+        if (size + runOut > pixels.length) {
+            int capacity = (int) Math.min(maxEntries, Math.max(size + runOut, 2L * pixels.length + 64));
+            pixels = Arrays.copyOf(pixels, capacity);
+            zr = Arrays.copyOf(zr, capacity);
+            zi = Arrays.copyOf(zi, capacity);
+        }
+        for (int j = 0; j < count; j++) {
+            int p = pixelIndex == null ? first + j : pixelIndex[first + j];
+            if (iterations[p] >= numIterations && spanZr[j] == spanZr[j]) {
+                pixels[size] = p;
+                zr[size] = spanZr[j];
+                zi[size] = spanZi[j];
+                size++;
+            }
+        }
+    }
+
+    //The recorded orbits in pixel order, trimmed, for resuming. Only call once the frame's render is done.
+    synchronized OrbitState sorted(int area) {
+        int[] slot = new int[area];
+        Arrays.fill(slot, -1);
+        for (int k = 0; k < size; k++)
+            slot[pixels[k]] = k;
+
+        OrbitState sorted = new OrbitState(null, numIterations, size);
+        sorted.pixels = new int[size];
+        sorted.zr = new double[size];
+        sorted.zi = new double[size];
+        for (int p = 0; p < area; p++) {
+            int k = slot[p];
+            if (k < 0)
+                continue;
+            sorted.pixels[sorted.size] = p;
+            sorted.zr[sorted.size] = zr[k];
+            sorted.zi[sorted.size] = zi[k];
+            sorted.size++;
+        }
+        return sorted;
+    }
+}
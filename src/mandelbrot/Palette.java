@@ -0,0 +1,105 @@
+package mandelbrot;
+
+import java.awt.Color;
+
+/**
+ * Turns iteration counts into colours, as a pass of its own after the render. Swapping the palette or turning
+ * smooth colouring on and off is then one pass over the count buffer instead of a render.
+ * <p>
+ * Every palette builds its colour table once and grows it when a higher iteration limit needs more entries, so
+ * tables are shared between frames, threads and limits. Points that reach the limit are black.
+ */
+public enum Palette {
+    //The original colouring, hue going round every 256 iterations, dark for the first few
+    HUE {
+        @Override
+        int colour(int n) {
+            return Color.HSBtoRGB(n / 256f, 1, n / (n + 8f));
+        }
+    },
+    //Black to white and back every 128 iterations
+    GREYSCALE {
+        @Override
+        int colour(int n) {
+            int v = (int) (255 * (0.5 - 0.5 * Math.cos(n * Math.PI / 64)));
+            return v << 16 | v << 8 | v;
+        }
+    },
+    //Black through red and yellow to white, repeating every 256 iterations
+    FIRE {
+        @Override
+        int colour(int n) {
+            int t = n & 255;
+            int r = Math.min(255, t * 3), g = Math.min(255, Math.max(0, t * 3 - 255)), b = Math.max(0, t * 3 - 510);
+            return r << 16 | g << 8 | b;
+        }
+    };
+
+    private volatile int[] table = new int[0];
+
+    //Colour of an escape after n iterations, RGB without alpha
+    abstract int colour(int n);
+
+    //At least size entries, index n is the colour of n iterations
+    int[] table(int size) {
+        int[] t = table;
+        if (t.length < size) {
+            //Doubling keeps rebuilds rare while the limit is being raised
+            t = new int[Math.max(size, 2 * t.length)];
+            for (int n = 0; n < t.length; n++) {
+                t[n] = colour(n) & 0xffffff;
+            }
+            table = t;
+        }
+        return t;
+    }
+
+    public int colour(int iterations, int numIterations) {
+        return iterations < numIterations ? table(numIterations)[iterations] : 0;
+    }
+
+    //One sample as paint colours it, smooth is NaN where there is no fraction
+    int colour(int iterations, float smooth, int numIterations) {
+        if (iterations >= numIterations)
+            return 0;
+        int[] t = table(numIterations + 1);
+        return smooth != smooth ? t[iterations] : blend(t, smooth, numIterations);
+    }
+
+    //Colours a region of a row-major count buffer into rgb, which has the same layout. Where smooth is given and
+    //not NaN the colour is blended between the two counts around the smooth value.
+    public void paint(int[] iterations, float[] smooth, int numIterations, int[] rgb, int width,
+                      int x, int y, int w, int h) {
+        int[] t = table(numIterations + 1);
+        for (int row = y; row < y + h; row++) {
+            int end = row * width + x + w;
+            if (smooth == null) {
+                for (int i = row * width + x; i < end; i++) {
+                    int n = iterations[i];
+                    rgb[i] = n < numIterations ? t[n] : 0;
+                }
+            } else {
+                for (int i = row * width + x; i < end; i++) {
+                    int n = iterations[i];
+                    if (n >= numIterations)
+                        rgb[i] = 0;
+                    else if (smooth[i] != smooth[i])
+                        rgb[i] = t[n];
+                    else
+                        rgb[i] = blend(t, smooth[i], numIterations);
+                }
+            }
+        }
+    }
+
+    private static int blend(int[] t, float value, int numIterations) {
+        float clamped = Math.max(0, Math.min(value, numIterations - 1));
+        int n = (int) clamped;
+        float f = clamped - n;
+        int a = t[n], b = t[n + 1];
+        int r = (int) ((a >> 16 & 255) * (1 - f) + (b >> 16 & 255) * f);
+        int g = (int) ((a >> 8 & 255) * (1 - f) + (b >> 8 & 255) * f);
+        int bl = (int) ((a & 255) * (1 - f) + (b & 255) * f);
+        return r << 16 | g << 8 | bl;
+    }
+}
@@ -0,0 +1,99 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deep-zoom Mandelbrot rendering by perturbation. The orbit of the viewport centre is iterated once in
+ * {@link BigDecimal} at the precision the pixel size needs, then stored as doubles. Every pixel only tracks its
+ * difference dz from that reference orbit, which stays small enough for doubles:
+ * <pre>
+ *     dz' = 2 Z dz + dz^2 + dc
+ * </pre>
+ * where dc is the pixel's offset from the centre. A pixel whose full value Z + dz gets smaller than dz itself, or
+ * that runs past the end of the reference orbit (the reference escaped first), would lose precision there: that
+ * is the glitch, and it is fixed by rebasing, taking Z + dz as the new dz and restarting from the beginning of the
+ * reference orbit, which starts at 0 like every pixel does.
+ * <p>
+ * Built once per render job on a worker thread, then shared read-only by all tiles.
+ */
+class PerturbationRenderer {
+    final Viewport viewport;
+    final int numIterations;
+    //Reference orbit Z_0..Z_last, Z_0 = 0
+    final double[] referenceRe, referenceIm;
+    final int last;
+
+    //Stops iterating the reference early if the job is cancelled meanwhile
+    PerturbationRenderer(Viewport viewport, int numIterations, AtomicBoolean cancelled) {
+        this.viewport = viewport;
+        this.numIterations = numIterations;
+
+        MathContext mc = Viewport.contextFor(Math.min(viewport.pixelWidth, viewport.pixelHeight));
+        BigDecimal cr = viewport.centreX, ci = viewport.centreY;
+        BigDecimal zr = BigDecimal.ZERO, zi = BigDecimal.ZERO;
+        BigDecimal two = BigDecimal.valueOf(2);
+
+        double[] re = new double[numIterations + 1];
+        double[] im = new double[numIterations + 1];
+        int n = 0;
+        while (true) {
+            re[n] = zr.doubleValue();
+            im[n] = zi.doubleValue();
+            if (n == numIterations || re[n] * re[n] + im[n] * im[n] > 4)
+                break;
+            if ((n & 255) == 0 && cancelled.get())
+                break;
+
+            BigDecimal zr2 = zr.multiply(zr, mc);
+            BigDecimal zi2 = zi.multiply(zi, mc);
+            zi = two.multiply(zr, mc).multiply(zi, mc).add(ci, mc);
+            zr = zr2.subtract(zi2, mc).add(cr, mc);
+            n++;
+        }
+        this.referenceRe = re;
+        this.referenceIm = im;
+        this.last = n;
+    }
+
+    int getReferenceLength() {
+        return last + 1;
+    }
+
+    void renderSpan(int y, int x, int count, int[] iterations) {
+        final double dci = viewport.offsetY(y);
+        final int offset = y * viewport.width;
+        for (int i = x; i < x + count; i++) {
+            iterations[offset + i] = iterate(viewport.offsetX(i), dci);
+        }
+    }
+
+    int iterate(double dcr, double dci) {
+        final double[] refRe = referenceRe, refIm = referenceIm;
+        double dzr = 0, dzi = 0;
+        int m = 0;
+
+        for (int n = 1; n <= numIterations; n++) {
+            //dz' = (2Z + dz) dz + dc
+            double tr = 2 * refRe[m] + dzr, ti = 2 * refIm[m] + dzi;
+            double nextDzr = tr * dzr - ti * dzi + dcr;
+            dzi = tr * dzi + ti * dzr + dci;
+            dzr = nextDzr;
+            m++;
+
+            //Full value of the pixel's z
+            double zr = refRe[m] + dzr, zi = refIm[m] + dzi;
+            double z2 = zr * zr + zi * zi;
+            if (z2 > 4)
+                return n;
+
+            if (z2 < dzr * dzr + dzi * dzi || m == last) {
+                dzr = zr;
+                dzi = zi;
+                m = 0;
+            }
+        }
+        return numIterations;
+    }
+}
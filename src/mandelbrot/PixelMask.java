@@ -0,0 +1,82 @@
+package mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ * Marks which pixels of an iteration buffer already hold their final count. A render given a mask only
+ * iterates the pixels it doesn't have yet and marks them as it goes, so progressive passes and frames copied
+ * from an earlier viewport never compute a sample twice.
+ * <p>
+ * One flag per pixel rather than a bit set, tiles of the same job mark neighbouring pixels from different
+ * threads. Read it once the job that writes it is done.
+ */
+public final class PixelMask {
+    final int width, height;
+    final boolean[] known;
+
+    public PixelMask(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Mask size must be positive: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.known = new boolean[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public boolean isKnown(int x, int y) {
+        return known[y * width + x];
+    }
+
+    //Marks count pixels of row y from column x
+    public void set(int y, int x, int count) {
+        int start = y * width + x;
+        for (int i = start; i < start + count; i++) {
+            known[i] = true;
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(known, false);
+    }
+
+    public int countKnown() {
+        int count = 0;
+        for (boolean k : known) {
+            if (k)
+                count++;
+        }
+        return count;
+    }
+
+    //True if every pixel of the region is known
+    boolean isKnown(int x, int y, int width, int height) {
+        for (int row = y; row < y + height; row++) {
+            if (nextUnknown(row, x, x + width) < x + width)
+                return false;
+        }
+        return true;
+    }
+
+    //First column in [from, to) of row y that isn't known, to if there is none
+    int nextUnknown(int y, int from, int to) {
+        int offset = y * width;
+        while (from < to && known[offset + from])
+            from++;
+        return from;
+    }
+
+    //First column in [from, to) of row y that is known, to if there is none
+    int nextKnown(int y, int from, int to) {
+        int offset = y * width;
+        while (from < to && !known[offset + from])
+            from++;
+        return from;
+    }
+}
@@ -0,0 +1,169 @@
+package mandelbrot;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes an 8-bit RGB PNG a few rows at a time, so images far larger than the heap can be encoded as they are
+ * rendered. Only one row of bytes and the deflater's window are held, whatever the size of the image.
+ * <p>
+ * Rows are written top to bottom with the Sub filter, which suits the smooth colour runs of escape-time images,
+ * and the compressed stream is cut into IDAT chunks of {@link #CHUNK_SIZE} bytes. The image is only valid once
+ * every row is in and the writer is closed.
+ */
+public class PngWriter implements Closeable {
+    static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    static final int CHUNK_SIZE = 1 << 16;
+    static final byte FILTER_SUB = 1;
+    //RGB
+    static final int BYTES_PER_PIXEL = 3;
+
+    private final DataOutputStream out;
+    private final int width, height;
+    private final Deflater deflater;
+    private final DeflaterOutputStream idat;
+    private final byte[] line;
+    private int rowsWritten;
+
+    public PngWriter(OutputStream out, int width, int height) throws IOException {
+        this(out, width, height, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    //Compression level as for Deflater, 1 is several times faster than the default and a little larger
+    public PngWriter(OutputStream out, int width, int height, int compression) throws IOException {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Image size must be positive: " + width + "x" + height);
+        if ((long) width * BYTES_PER_PIXEL + 1 > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Rows of " + width + " pixels don't fit a PNG line buffer");
+        this.out = new DataOutputStream(out);
+        this.width = width;
+        this.height = height;
+        this.line = new byte[1 + width * BYTES_PER_PIXEL];
+        this.deflater = new Deflater(compression);
+        this.idat = new DeflaterOutputStream(new ChunkStream(), deflater, CHUNK_SIZE);
+
+        this.out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;      //bits per sample
+        header[9] = 2;      //truecolour
+        //compression, filter method and interlace are all 0
+        writeChunk("IHDR", header, header.length);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getRowsWritten() {
+        return rowsWritten;
+    }
+
+    //Rows of 0xRRGGBB pixels, width to a row, starting at offset
+    public void writeRows(int[] rgb, int offset, int rows) throws IOException {
+        if (rowsWritten + rows > height)
+            throw new IllegalStateException("Image has " + height + " rows, " + (rowsWritten + rows) + " written");
+        for (int r = 0; r < rows; r++) {
+            int start = offset + r * width;
+            line[0] = FILTER_SUB;
+            int left = 0;
+            for (int x = 0, i = 1; x < width; x++, i += BYTES_PER_PIXEL) {
+                int pixel = rgb[start + x];
+                line[i] = (byte) ((pixel >> 16) - (left >> 16));
+                line[i + 1] = (byte) ((pixel >> 8) - (left >> 8));
+                line[i + 2] = (byte) (pixel - left);
+                left = pixel;
+            }
+            idat.write(line);
+        }
+        rowsWritten += rows;
+    }
+
+    //Finishes the image and closes the stream under it
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height)
+                throw new IllegalStateException("Image has " + height + " rows, only " + rowsWritten + " written");
+            idat.close();
+            writeChunk("IEND", new byte[0], 0);
+        } finally {
+            deflater.end();
+            out.close();
+        }
+    }
+
+    //Gives up on the image and closes the stream, the file is left incomplete
+    public void abort() throws IOException {
+        try {
+            deflater.end();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes("US-ASCII");
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static void putInt(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) (value >>> 24);
+        bytes[offset + 1] = (byte) (value >>> 16);
+        bytes[offset + 2] = (byte) (value >>> 8);
+        bytes[offset + 3] = (byte) value;
+    }
+
+    //Collects compressed bytes into IDAT chunks. Closing it writes what is left but leaves the file open for IEND.
+    private class ChunkStream extends OutputStream {
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+        private int size;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (size == CHUNK_SIZE)
+                emit();
+            chunk[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (size == CHUNK_SIZE)
+                    emit();
+                int n = Math.min(len, CHUNK_SIZE - size);
+                System.arraycopy(b, off, chunk, size, n);
+                size += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void emit() throws IOException {
+            writeChunk("IDAT", chunk, size);
+            size = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (size > 0)
+                emit();
+        }
+    }
+}
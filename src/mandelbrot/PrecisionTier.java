@@ -0,0 +1,36 @@
+package mandelbrot;
+
+/**
+ * Arithmetic a viewport is rendered with, picked from how small its pixels are compared to its coordinates.
+ * For the default view's coordinates that is doubles down to a span of about 1e-10 across the frame,
+ * double-doubles down to about 1e-16, and perturbation beyond.
+ */
+public enum PrecisionTier {
+    //Plain doubles through the engine's EscapeKernel
+    DOUBLE,
+    //About 32 significant digits per pixel, see DoubleDoubleRenderer
+    DOUBLE_DOUBLE,
+    //One BigDecimal reference orbit at the centre, every pixel as a double delta from it, see PerturbationRenderer
+    PERTURBATION;
+
+    //Doubles are used while a pixel spans at least this many ulps of the largest coordinate in view
+    static final double DOUBLE_MIN_ULPS = 1024;
+    //Double-doubles while a pixel spans at least this much of an ulp. Perturbation is four to five times faster
+    //across the band, but just past doubles it misses pixels that double-doubles get right. Near 1e-19 pixels in
+    //the seahorse valley that turns around: at 20000 iterations both miss some, and deeper only perturbation
+    //holds up, well before the 106 bits of a double-double run out.
+    static final double DOUBLE_DOUBLE_MIN_ULPS = 0x1p-10;
+
+    public static PrecisionTier forViewport(Viewport viewport) {
+        double magnitude = Math.max(Math.max(Math.abs(viewport.xMin), Math.abs(viewport.xMax)),
+                Math.max(Math.abs(viewport.yMin), Math.abs(viewport.yMax)));
+        double pixel = Math.min(viewport.pixelWidth, viewport.pixelHeight);
+        double ulp = Math.ulp(Math.max(magnitude, Double.MIN_NORMAL));
+
+        if (pixel >= ulp * DOUBLE_MIN_ULPS)
+            return DOUBLE;
+        if (pixel >= ulp * DOUBLE_DOUBLE_MIN_ULPS)
+            return DOUBLE_DOUBLE;
+        return PERTURBATION;
+    }
+}
@@ -0,0 +1,106 @@
+package mandelbrot;
+
+/**
+ * Allocation-free kernel working on plain doubles. The squares of the real and imaginary part are needed both
+ * for the escape test and for the next z^2, so they are computed once per step and carried over.
+ * <p>
+ * With interior checks on, points that provably never escape stop early: the main cardioid and the period-2
+ * bulb are tested analytically before iterating, and orbits that fall into a cycle are caught by comparing z
+ * against a saved value whose distance doubles each time (Brent's method), so the check costs one compare
+ * per step. Both report the iteration limit, exactly like a point that ran out of iterations.
+ */
+public class PrimitiveKernel extends EscapeKernel {
+    //Orbits closer than this to the saved point are taken as periodic
+    static final double PERIOD_EPSILON = 1e-15;
+
+    final boolean interiorChecks;
+
+    public PrimitiveKernel() {
+        this(true);
+    }
+
+    public PrimitiveKernel(boolean interiorChecks) {
+        this.interiorChecks = interiorChecks;
+    }
+
+    public boolean hasInteriorChecks() {
+        return interiorChecks;
+    }
+
+    @Override
+    public int mandelbrot(double cx, double cy, int maxIterations) {
+        if (interiorChecks && isInMainComponents(cx, cy))
+            return maxIterations;
+        return iterate(0, 0, cx, cy, maxIterations, interiorChecks);
+    }
+
+    @Override
+    public int julia(double zx, double zy, double cx, double cy, int maxIterations) {
+        return iterate(zx, zy, cx, cy, maxIterations, interiorChecks);
+    }
+
+    @Override
+    public int mandelbrotOrbit(double cx, double cy, double[] zr, double[] zi, int i, int from, int maxIterations) {
+        if (interiorChecks && isInMainComponents(cx, cy)) {
+            zr[i] = zi[i] = Double.NaN;
+            return maxIterations;
+        }
+        return iterate(zr[i], zi[i], cx, cy, from, maxIterations, interiorChecks, zr, zi, i);
+    }
+
+    //Main cardioid or the period-2 bulb to its left
+    static boolean isInMainComponents(double cx, double cy) {
+        double y2 = cy * cy;
+        double xq = cx - 0.25;
+        double q = xq * xq + y2;
+        if (q * (q + xq) <= 0.25 * y2)
+            return true;
+        double x1 = cx + 1;
+        return x1 * x1 + y2 <= 0.0625;
+    }
+
+    static int iterate(double zr, double zi, double cr, double ci, int maxIterations, boolean detectCycles) {
+        return iterate(zr, zi, cr, ci, 0, maxIterations, detectCycles, null, null, 0);
+    }
+
+    //Starts from z after `from` steps. With orbit arrays the final z goes to index i, NaN for a detected cycle.
+    private static int iterate(double zr, double zi, double cr, double ci, int from, int maxIterations,
+                               boolean detectCycles, double[] orbitR, double[] orbitI, int i) {
+        double zr2 = zr * zr;
+        double zi2 = zi * zi;
+        int iterations = from;
+
+        //Saved orbit point, moved forward every time the step count reaches the current period
+        double savedR = zr, savedI = zi;
+        int period = 8, steps = 0;
+
+        //|z|^2 < 4 using the squares from the previous step
+        while (zr2 + zi2 < 4 && iterations < maxIterations) {
+            //(a+bi)^2 = a^2 - b^2 + 2abi
+            zi = 2 * zr * zi + ci;
+            zr = zr2 - zi2 + cr;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            iterations++;
+
+            if (detectCycles) {
+                if (Math.abs(zr - savedR) + Math.abs(zi - savedI) < PERIOD_EPSILON) {
+                    if (orbitR != null)
+                        orbitR[i] = orbitI[i] = Double.NaN;
+                    return maxIterations;
+                }
+                if (++steps == period) {
+                    steps = 0;
+                    period <<= 1;
+                    savedR = zr;
+                    savedI = zi;
+                }
+            }
+        }
+        if (orbitR != null) {
+            orbitR[i] = zr;
+            orbitI[i] = zi;
+        }
+        return iterations;
+    }
+}
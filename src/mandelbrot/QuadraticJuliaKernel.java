@@ -0,0 +1,41 @@
+package mandelbrot;
+
+/**
+ * Julia sets of z = z^2 + c as frames, the pixels being z0 for the c of the formula. The loop is
+ * {@link PrimitiveKernel}'s, cycle detection included; the cardioid test is only for the Mandelbrot set.
+ */
+final class QuadraticJuliaKernel extends FormulaKernel {
+
+    QuadraticJuliaKernel(Formula formula, boolean interiorChecks) {
+        super(formula, interiorChecks);
+        if (!julia)
+            throw new IllegalArgumentException("Not a Julia set: " + formula);
+    }
+
+    @Override
+    int iterate(double zr, double zi, double cr, double ci, int maxIterations) {
+        return PrimitiveKernel.iterate(zr, zi, cr, ci, maxIterations, interiorChecks);
+    }
+
+    @Override
+    public void mandelbrotRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations) {
+        super.mandelbrotRow(viewport, y, x, count, maxIterations, iterations);
+    }
+
+    @Override
+    public void juliaRow(Viewport viewport, double cx, double cy, int y, int x, int count, int maxIterations,
+                         int[] iterations) {
+        super.juliaRow(viewport, cx, cy, y, x, count, maxIterations, iterations);
+    }
+
+    @Override
+    public double smoothValue(double x, double y, int iterations) {
+        double zr = x, zi = y;
+        for (int i = 0; i < iterations + smoothSteps; i++) {
+            double t = zr * zr - zi * zi + juliaX;
+            zi = 2 * zr * zi + juliaY;
+            zr = t;
+        }
+        return renormalize(zr, zi, iterations);
+    }
+}
@@ -0,0 +1,444 @@
+package mandelbrot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spreads renders over {@link RenderWorker} JVMs, for posters and zooms that one machine's cores would take too
+ * long over. Workers connect to the coordinator's port, from other machines or started on this one by
+ * {@link #startLocalWorkers}. {@link #render} cuts a frame into tiles of {@code tileSize} pixels square, hands them
+ * out and copies the counts that come back into the frame. See {@link RenderProtocol} for the wire format.
+ * <p>
+ * Workers pull: each one gets {@link #DEPTH} tiles and then a new one for every result it returns, so a fast
+ * machine takes more of a frame than a slow one and none waits on the network between tiles. Tiles the frame
+ * already has, say after {@link FrameBuffer#reproject}, aren't sent at all.
+ * <p>
+ * A worker that drops its connection, or says nothing for {@code timeoutMillis} while it has tiles, is given up
+ * and its tiles go back to the front of the queue for the others. So do tiles a worker reports as failed. A tile
+ * that has been lost {@link #MAX_ATTEMPTS} times fails its frame.
+ * <p>
+ * A tile is rendered as a viewport of its own, on the same pixel grid as the frame. At double precision that
+ * can round a pixel's coordinate one ulp differently than a render of the whole frame, so chaotic pixels near
+ * the limit can come out differently, about as many as after panning the window.
+ */
+public class RenderCoordinator implements Closeable {
+    static final int DEFAULT_TILE_SIZE = 256;
+    static final int DEFAULT_TIMEOUT_MILLIS = 30000;
+    //Tiles a worker holds, one rendering and the next ready behind it
+    static final int DEPTH = 2;
+    static final int MAX_ATTEMPTS = 3;
+
+    private final ServerSocket server;
+    private final int tileSize;
+    private final int timeoutMillis;
+    private final LinkedBlockingDeque<Tile> queue = new LinkedBlockingDeque<Tile>();
+    private final List<Connection> connections = new CopyOnWriteArrayList<Connection>();
+    //Guarded by itself
+    private final List<Process> processes = new ArrayList<Process>();
+    private final AtomicInteger workerCount = new AtomicInteger();
+    private final AtomicLong tilesRendered = new AtomicLong(), retries = new AtomicLong();
+    //Tiles each worker that ever connected has returned, by name
+    private final Map<String, AtomicLong> tilesByWorker = new TreeMap<String, AtomicLong>();
+    private volatile boolean closed;
+
+    //Port 0 takes any free one, see getPort
+    public RenderCoordinator(int port) throws IOException {
+        this(port, DEFAULT_TILE_SIZE, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    public RenderCoordinator(int port, int tileSize, int timeoutMillis) throws IOException {
+        if (tileSize < TileRenderer.MIN_TILE)
+            throw new IllegalArgumentException("Tiles must be at least " + TileRenderer.MIN_TILE + " pixels: " + tileSize);
+        if (timeoutMillis <= RenderProtocol.HEARTBEAT_MILLIS)
+            throw new IllegalArgumentException("Timeout must be longer than the " + RenderProtocol.HEARTBEAT_MILLIS
+                    + " ms heartbeat: " + timeoutMillis);
+        this.tileSize = tileSize;
+        this.timeoutMillis = timeoutMillis;
+        this.server = new ServerSocket(port);
+
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "coordinator-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    //Workers connected right now
+    public int getWorkers() {
+        return connections.size();
+    }
+
+    public long getTilesRendered() {
+        return tilesRendered.get();
+    }
+
+    //Tiles sent again after a worker lost or failed them
+    public long getRetries() {
+        return retries.get();
+    }
+
+    public Map<String, Long> getTilesByWorker() {
+        Map<String, Long> tiles = new TreeMap<String, Long>();
+        synchronized (tilesByWorker) {
+            for (Map.Entry<String, AtomicLong> entry : tilesByWorker.entrySet())
+                tiles.put(entry.getKey(), entry.getValue().get());
+        }
+        return tiles;
+    }
+
+    //Starts count worker JVMs on this machine with threads render threads each, on the same class path and
+    //modules as this one. They connect by themselves and exit when the coordinator is closed.
+    public void startLocalWorkers(int count, int threads) throws IOException {
+        if (count <= 0 || threads <= 0)
+            throw new IllegalArgumentException("Need positive workers and threads: " + count + ", " + threads);
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        //The vector kernel needs its module in the workers too
+        for (String argument : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+            if (argument.startsWith("--add-modules"))
+                command.add(argument);
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(MandelBrot.class.getName());
+        command.add("worker");
+        command.add("localhost:" + getPort());
+        command.add("threads=" + threads);
+        ProcessBuilder builder = new ProcessBuilder(command).inheritIO();
+        synchronized (processes) {
+            if (closed)
+                throw new IllegalStateException("Coordinator is closed");
+            for (int i = 0; i < count; i++)
+                processes.add(builder.start());
+        }
+    }
+
+    public void render(FrameBuffer frame) throws IOException, InterruptedException {
+        render(frame, Formula.MANDELBROT);
+    }
+
+    //Blocks until every tile of the frame the frame doesn't have yet is in it, rendered with formula. Interrupting
+    //the calling thread drops the frame's tiles that haven't gone out yet.
+    public void render(FrameBuffer frame, Formula formula) throws IOException, InterruptedException {
+        Viewport viewport = frame.viewport;
+        Frame pending = new Frame(frame, formula);
+        List<Tile> tiles = new ArrayList<Tile>();
+        for (int y = 0; y < viewport.height; y += tileSize) {
+            int height = Math.min(tileSize, viewport.height - y);
+            for (int x = 0; x < viewport.width; x += tileSize) {
+                int width = Math.min(tileSize, viewport.width - x);
+                if (!frame.known.isKnown(x, y, width, height))
+                    tiles.add(new Tile(pending, x, y, width, height, viewport.crop(x, y, width, height)));
+            }
+        }
+        pending.remaining = tiles.size();
+        if (tiles.isEmpty())
+            return;
+        if (connections.isEmpty() && !hasLocalWorkers())
+            System.out.println("Waiting for workers on port " + getPort());
+        queue.addAll(tiles);
+
+        synchronized (pending) {
+            try {
+                while (pending.remaining > 0 && pending.failure == null) {
+                    pending.wait(1000);
+                    if (closed)
+                        throw new IOException("Coordinator closed while rendering " + viewport);
+                    if (connections.isEmpty() && hasLocalWorkers() && !localWorkersAlive())
+                        throw new IOException("Every local worker has exited and no others are connected");
+                }
+                if (pending.failure != null)
+                    throw new IOException("Render of " + viewport + " failed", pending.failure);
+            } finally {
+                //Whatever is still queued is dropped by the workers' threads
+                pending.over = true;
+            }
+        }
+    }
+
+    private boolean hasLocalWorkers() {
+        synchronized (processes) {
+            return !processes.isEmpty();
+        }
+    }
+
+    private boolean localWorkersAlive() {
+        synchronized (processes) {
+            for (Process process : processes) {
+                if (isAlive(process))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    //Process.isAlive is Java 8, exitValue tells on anything
+    private static boolean isAlive(Process process) {
+        try {
+            process.exitValue();
+            return false;
+        } catch (IllegalThreadStateException e) {
+            return true;
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!closed)
+                    System.err.println("Coordinator stopped accepting workers: " + e);
+                return;
+            }
+            Connection connection = new Connection(socket, "worker-" + workerCount.incrementAndGet());
+            Thread thread = new Thread(connection, "coordinator-" + connection.name);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    //Back to the front of the queue, or the frame fails if the tile has used up its attempts
+    private void retry(Tile tile, String reason) {
+        if (tile.frame.isOver())
+            return;
+        if (++tile.attempts >= MAX_ATTEMPTS) {
+            tile.frame.fail(new IOException("Tile at " + tile.x + ", " + tile.y + " lost " + MAX_ATTEMPTS
+                    + " times, last: " + reason));
+            return;
+        }
+        retries.incrementAndGet();
+        queue.addFirst(tile);
+    }
+
+    //Disconnects the workers, which makes local ones exit, and waits a little for them
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Connection connection : connections)
+            connection.close();
+        List<Process> local;
+        synchronized (processes) {
+            local = new ArrayList<Process>(processes);
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        for (Process process : local) {
+            while (isAlive(process) && System.currentTimeMillis() < deadline) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            if (isAlive(process))
+                process.destroy();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getWorkers() + " workers, " + getTilesRendered() + " tiles, " + getRetries() + " retried";
+    }
+
+    //One frame being rendered, its tiles copy themselves in
+    static final class Frame {
+        final FrameBuffer buffer;
+        final Formula formula;
+        //Guarded by this
+        int remaining;
+        IOException failure;
+        //Stops its tiles going out, once it is rendered, failed or given up
+        volatile boolean over;
+
+        Frame(FrameBuffer buffer, Formula formula) {
+            this.buffer = buffer;
+            this.formula = formula;
+        }
+
+        boolean isOver() {
+            return over;
+        }
+
+        synchronized void complete(Tile tile, int[] iterations, float[] smooth) {
+            if (over || tile.done)
+                return;
+            int width = buffer.viewport.width;
+            for (int row = 0; row < tile.height; row++) {
+                int to = (tile.y + row) * width + tile.x;
+                System.arraycopy(iterations, row * tile.width, buffer.iterations, to, tile.width);
+                if (smooth != null && buffer.smooth != null)
+                    System.arraycopy(smooth, row * tile.width, buffer.smooth, to, tile.width);
+                buffer.known.set(tile.y + row, tile.x, tile.width);
+            }
+            tile.done = true;
+            if (--remaining == 0)
+                notifyAll();
+        }
+
+        synchronized void fail(IOException e) {
+            if (failure == null)
+                failure = e;
+            over = true;
+            notifyAll();
+        }
+    }
+
+    static final class Tile {
+        final Frame frame;
+        final int x, y, width, height;
+        final Viewport viewport;
+        //Only touched by the thread that holds the tile, the queue hands it over
+        int attempts;
+        //Guarded by the frame
+        boolean done;
+
+        Tile(Frame frame, int x, int y, int width, int height, Viewport viewport) {
+            this.frame = frame;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.viewport = viewport;
+        }
+    }
+
+    //Feeds one worker and takes its results, on a thread of its own
+    private class Connection implements Runnable {
+        final Socket socket;
+        final String name;
+        final AtomicLong tiles = new AtomicLong();
+        //In the order they were sent, which is the order the worker answers in
+        final Deque<Tile> inFlight = new ArrayDeque<Tile>();
+        int nextId;
+
+        Connection(Socket socket, String name) {
+            this.socket = socket;
+            this.name = name;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(timeoutMillis);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                if (in.readInt() != RenderProtocol.MAGIC || in.readInt() != RenderProtocol.VERSION)
+                    throw new IOException("Not a version " + RenderProtocol.VERSION + " worker");
+                int threads = in.readInt();
+                connections.add(this);
+                synchronized (tilesByWorker) {
+                    tilesByWorker.put(name, tiles);
+                }
+                System.out.println(name + " joined from " + socket.getInetAddress().getHostAddress() + " with "
+                        + threads + " threads");
+                serve(in, out);
+            } catch (IOException e) {
+                if (!closed)
+                    System.err.println(name + " lost: " + e);
+            } catch (InterruptedException e) {
+                //Only daemon threads get here, and only on exit
+            } finally {
+                close();
+                connections.remove(this);
+                for (Tile tile : inFlight)
+                    retry(tile, name + " was lost");
+                inFlight.clear();
+            }
+        }
+
+        private void serve(DataInputStream in, DataOutputStream out) throws IOException, InterruptedException {
+            while (!closed) {
+                //Waits for work only when the worker has none, otherwise just tops it up
+                Tile tile = inFlight.isEmpty() ? queue.poll(1, TimeUnit.SECONDS) : queue.poll();
+                while (tile != null) {
+                    if (!tile.frame.isOver())
+                        send(tile, out);
+                    tile = inFlight.size() < DEPTH ? queue.poll() : null;
+                }
+                out.flush();
+                if (!inFlight.isEmpty())
+                    receive(in);
+            }
+        }
+
+        private void send(Tile tile, DataOutputStream out) throws IOException {
+            out.writeByte(RenderProtocol.TILE);
+            out.writeInt(nextId++);
+            RenderProtocol.writeViewport(out, tile.viewport);
+            out.writeInt(tile.frame.buffer.numIterations);
+            out.writeBoolean(tile.frame.buffer.smooth != null);
+            out.writeUTF(tile.frame.formula.getName());
+            inFlight.add(tile);
+        }
+
+        //Reads one message, the worker's heartbeats only reset the timeout
+        private void receive(DataInputStream in) throws IOException {
+            int type = in.readUnsignedByte();
+            if (type == RenderProtocol.HEARTBEAT)
+                return;
+            if (type != RenderProtocol.RESULT && type != RenderProtocol.FAILED)
+                throw new IOException("Unknown message " + type);
+            int id = in.readInt();
+            //Ids go up by one per tile sent, the oldest one in flight is at nextId - size
+            if (id != nextId - inFlight.size())
+                throw new IOException("Answer for tile " + id + ", expected " + (nextId - inFlight.size()));
+            Tile tile = inFlight.peekFirst();
+            if (type == RenderProtocol.FAILED) {
+                String reason = in.readUTF();
+                inFlight.removeFirst();
+                System.err.println(name + " failed a tile: " + reason);
+                retry(tile, reason);
+                return;
+            }
+            int area = tile.width * tile.height;
+            int[] iterations = RenderProtocol.readInts(in, area);
+            float[] smooth = tile.frame.buffer.smooth != null ? RenderProtocol.readFloats(in, area) : null;
+            inFlight.removeFirst();
+            tiles.incrementAndGet();
+            tilesRendered.incrementAndGet();
+            tile.frame.complete(tile, iterations, smooth);
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                //Nothing left to do with it
+            }
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package mandelbrot;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Headless escape-time renderer. A viewport and an iteration limit go in, an iteration-count buffer comes out,
+ * one int per pixel in row-major order. Points that never escape are stored as the iteration limit itself.
+ * <p>
+ * Nothing here touches AWT, so it runs on servers without a display. An engine owns a pool of worker threads
+ * and is meant to be created once and reused; all per-render state lives in its {@link RenderJob}, which makes
+ * it safe to render several viewports concurrently from different threads. {@code submit} returns the job
+ * straight away, the {@code render} methods block until it is done.
+ * <p>
+ * The pool is a work-stealing {@link ForkJoinPool}. Frames are split into tiles by estimated cost (see
+ * {@link TileRenderer}) or, in {@link RenderMode#SUBDIVISION}, into rectangles by their borders.
+ * <p>
+ * Every job counts what it did in its {@link RenderStats}, and the engine keeps the totals in its
+ * {@link RenderMetrics}, which can be watched over JMX or through a {@link MetricsListener}.
+ * <p>
+ * What gets iterated is up to the kernel, see {@link #setFormula}. Frames of formulas other than the Mandelbrot
+ * set always render tiled at double precision, without orbits.
+ */
+public class RenderEngine {
+    static final String THREAD_PREFIX = "render-";
+
+    private final int numThreads;
+    private final ForkJoinPool pool;
+    private final RenderMetrics metrics;
+    private ObjectName mbeanName;
+    private volatile EscapeKernel kernel = EscapeKernel.createDefault();
+    private volatile RenderMode renderMode = RenderMode.TILED;
+
+    public RenderEngine() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public RenderEngine(int numThreads) {
+        if (numThreads <= 0)
+            throw new IllegalArgumentException("Need at least one render thread: " + numThreads);
+        this.numThreads = numThreads;
+        this.metrics = new RenderMetrics();
+
+        //Fork-join workers are daemon threads, an idle engine never keeps the JVM alive
+        final AtomicInteger threadCount = new AtomicInteger();
+        pool = new ForkJoinPool(numThreads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+            @Override
+            public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                //Tells the metrics which workers are alive, the pool retires idle ones and starts new ones
+                ForkJoinWorkerThread t = new ForkJoinWorkerThread(pool) {
+                    @Override
+                    protected void onStart() {
+                        super.onStart();
+                        metrics.workerStarted(getName());
+                    }
+
+                    @Override
+                    protected void onTermination(Throwable exception) {
+                        metrics.workerRetired(getName());
+                        super.onTermination(exception);
+                    }
+                };
+                t.setName(THREAD_PREFIX + threadCount.incrementAndGet());
+                return t;
+            }
+        }, null, false);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public RenderMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void addMetricsListener(MetricsListener listener) {
+        metrics.addListener(listener);
+    }
+
+    public void removeMetricsListener(MetricsListener listener) {
+        metrics.removeListener(listener);
+    }
+
+    //Shows the metrics over JMX as mandelbrot:type=RenderEngine,name=<name> on the platform server, until shutdown
+    public synchronized ObjectName registerMBean(String name) throws JMException {
+        if (mbeanName != null)
+            throw new IllegalStateException("Already registered as " + mbeanName);
+        ObjectName objectName = new ObjectName("mandelbrot:type=RenderEngine,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, objectName);
+        mbeanName = objectName;
+        return objectName;
+    }
+
+    public EscapeKernel getKernel() {
+        return kernel;
+    }
+
+    //Takes effect from the next render, renders already running keep the kernel they started with
+    public void setKernel(EscapeKernel kernel) {
+        if (kernel == null)
+            throw new IllegalArgumentException("Kernel can't be null");
+        this.kernel = kernel;
+    }
+
+    public Formula getFormula() {
+        return kernel.getFormula();
+    }
+
+    //Switches to the fastest kernel for formula, from the next render
+    public void setFormula(Formula formula) {
+        setKernel(formula.createKernel());
+    }
+
+    public RenderMode getRenderMode() {
+        return renderMode;
+    }
+
+    //Applies to double precision Mandelbrot renders only, Julia and deeper zooms are always tiled
+    public void setRenderMode(RenderMode renderMode) {
+        if (renderMode == null)
+            throw new IllegalArgumentException("Render mode can't be null");
+        this.renderMode = renderMode;
+    }
+
+    public int[] render(Viewport viewport, int numIterations) throws InterruptedException {
+        int[] iterations = new int[viewport.getArea()];
+        render(viewport, numIterations, iterations, null);
+        return iterations;
+    }
+
+    //Blocks until the buffer is filled. Interrupting the calling thread cancels the render.
+    public void render(Viewport viewport, int numIterations, int[] iterations, RenderListener listener) throws InterruptedException {
+        await(submit(viewport, numIterations, iterations, listener));
+    }
+
+    //Starts the render on the pool and returns straight away
+    public RenderJob submit(Viewport viewport, int numIterations, int[] iterations, RenderListener listener) {
+        return submit(viewport, numIterations, iterations, null, 1, listener);
+    }
+
+    //Renders only the pixels on every stride-th row and column that known doesn't have yet, and marks them in it.
+    //Pixels the mask already has must hold their counts in the buffer. Masked and strided renders are always tiled.
+    public RenderJob submit(Viewport viewport, int numIterations, int[] iterations, PixelMask known, int stride,
+                            RenderListener listener) {
+        return submit(viewport, numIterations, iterations, null, known, stride, listener);
+    }
+
+    //Also writes smooth escape values into smooth, if it isn't null. Only double precision renders have them,
+    //deeper zooms leave smooth alone.
+    public RenderJob submit(final Viewport viewport, final int numIterations, final int[] iterations,
+                            final float[] smooth, PixelMask known, int stride, RenderListener listener) {
+        checkBuffer(viewport, iterations);
+        if (smooth != null && smooth.length < viewport.getArea())
+            throw new IllegalArgumentException("Smooth buffer too small for " + viewport);
+        if (known != null && (known.width != viewport.width || known.height != viewport.height))
+            throw new IllegalArgumentException("Mask is " + known.width + "x" + known.height + ", not the size of " + viewport);
+        if (stride <= 0)
+            throw new IllegalArgumentException("Stride must be positive: " + stride);
+        return submit(new RenderJob(viewport, numIterations, iterations, smooth, known, stride), listener);
+    }
+
+    //Renders what the frame doesn't have yet on every stride-th row and column, into the frame. Keeps orbits if
+    //the frame captures them and, on a full pass, first carries on the ones it was raised from. Only double
+    //precision renders keep orbits, deeper zooms mark the frame's as lost.
+    public RenderJob submit(FrameBuffer frame, int stride, RenderListener listener) {
+        if (stride <= 0)
+            throw new IllegalArgumentException("Stride must be positive: " + stride);
+        return submit(new RenderJob(frame, stride), listener);
+    }
+
+    private RenderJob submit(final RenderJob job, RenderListener listener) {
+        final Viewport viewport = job.viewport;
+        final int numIterations = job.numIterations;
+        final int[] iterations = job.iterations;
+        final float[] smooth = job.smooth;
+        final EscapeKernel kernel = this.kernel;
+        //The deeper tiers, orbits and subdivision all know only z^2 + c
+        final boolean mandelbrot = kernel.getFormula() == Formula.MANDELBROT;
+
+        PrecisionTier tier = mandelbrot ? PrecisionTier.forViewport(viewport) : PrecisionTier.DOUBLE;
+        if ((tier != PrecisionTier.DOUBLE || !mandelbrot) && job.orbits != null)
+            job.orbits.invalidate();
+        final OrbitState orbits = mandelbrot ? job.orbits : null;
+        if (tier == PrecisionTier.PERTURBATION)
+            return start(job, deepZoom(job, listener), listener);
+        if (tier == PrecisionTier.DOUBLE_DOUBLE)
+            return start(job, midZoom(job, listener), listener);
+
+        //Subdivision fills whole rectangles, so only frames with nothing known yet and no orbits to keep
+        if (mandelbrot && renderMode == RenderMode.SUBDIVISION && smooth == null && job.stride == 1
+                && job.orbits == null && (job.known == null || job.known.countKnown() == 0)) {
+            final RecursiveAction subdivision = new SubdivisionRenderer(job, kernel, listener).createTask();
+            if (job.known == null)
+                return start(job, subdivision, listener);
+            return start(job, new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    subdivision.invoke();
+                    //A cancelled frame stays unknown and renders again in full
+                    if (!job.isCancelled())
+                        for (int y = 0; y < viewport.height; y++)
+                            job.known.set(y, 0, viewport.width);
+                }
+            }, listener);
+        }
+
+        final RecursiveAction tiles = new TileRenderer(job, new TileRenderer.Spans() {
+            @Override
+            public void renderSpan(int y, int x, int count, TileRenderer.Scratch scratch) {
+                if (orbits != null) {
+                    double[] zr = scratch.zr(count), zi = scratch.zi(count);
+                    kernel.mandelbrotRow(viewport, y, x, count, numIterations, iterations, zr, zi);
+                    orbits.record(y * viewport.width + x, count, iterations, zr, zi);
+                    if (smooth != null)
+                        EscapeKernel.smoothRow(viewport, y, x, count, numIterations, iterations, smooth);
+                } else if (smooth != null) {
+                    kernel.mandelbrotSmoothRow(viewport, y, x, count, numIterations, iterations, smooth);
+                } else {
+                    kernel.mandelbrotRow(viewport, y, x, count, numIterations, iterations);
+                }
+            }
+
+            @Override
+            public int sample(int x, int y) {
+                return kernel.mandelbrot(viewport.calculateX(x), viewport.calculateY(y), numIterations);
+            }
+        }, listener).createTask();
+        if (job.resume == null || !mandelbrot)
+            return start(job, tiles, listener);
+
+        //The tiles then only pick up pixels the old frame had no orbits for, and report the whole frame
+        final RecursiveAction resume = new OrbitResumer(job, kernel).createTask();
+        return start(job, new RecursiveAction() {
+            @Override
+            protected void compute() {
+                resume.invoke();
+                if (!job.isCancelled())
+                    tiles.invoke();
+            }
+        }, listener);
+    }
+
+    public int[] renderJulia(Viewport viewport, double complexX, double complexY, int numIterations) throws InterruptedException {
+        int[] iterations = new int[viewport.getArea()];
+        renderJulia(viewport, complexX, complexY, numIterations, iterations, null);
+        return iterations;
+    }
+
+    public void renderJulia(Viewport viewport, double complexX, double complexY, int numIterations,
+                            int[] iterations, RenderListener listener) throws InterruptedException {
+        await(submitJulia(viewport, complexX, complexY, numIterations, iterations, listener));
+    }
+
+    //Julia set for the fixed point c = complexX + complexY i, the viewport gives the starting values of z
+    public RenderJob submitJulia(final Viewport viewport, final double complexX, final double complexY, final int numIterations,
+                                 final int[] iterations, RenderListener listener) {
+        checkBuffer(viewport, iterations);
+        final RenderJob job = new RenderJob(viewport, numIterations, iterations);
+        final EscapeKernel kernel = this.kernel;
+
+        return start(job, new TileRenderer(job, new TileRenderer.Spans() {
+            @Override
+            public void renderSpan(int y, int x, int count, TileRenderer.Scratch scratch) {
+                kernel.juliaRow(viewport, complexX, complexY, y, x, count, numIterations, iterations);
+            }
+
+            @Override
+            public int sample(int x, int y) {
+                return kernel.julia(viewport.calculateX(x), viewport.calculateY(y), complexX, complexY, numIterations);
+            }
+        }, listener).createTask(), listener);
+    }
+
+    //Colours a rendered frame into rgb and supersamples the pixels on its edges with samples x samples jittered
+    //points each, see AntiAliaser. A pixel is on an edge if its count is more than threshold away from a neighbour's.
+    public RenderJob submitAntiAliased(final FrameBuffer frame, final Palette palette, final int[] rgb,
+                                       final int samples, final int threshold, final RenderListener listener) {
+        final Viewport viewport = frame.viewport;
+        if (rgb.length < viewport.getArea())
+            throw new IllegalArgumentException("Colour buffer too small for " + viewport);
+        if (samples <= 0 || threshold < 0)
+            throw new IllegalArgumentException("Need positive samples and a threshold of at least 0: " + samples + ", " + threshold);
+        if (frame.known.countKnown() < viewport.getArea())
+            throw new IllegalStateException("Frame of " + viewport + " isn't rendered yet");
+        final RenderJob job = new RenderJob(viewport, frame.numIterations, frame.iterations);
+        final int numIterations = frame.numIterations;
+        final EscapeKernel kernel = this.kernel;
+
+        PrecisionTier tier = kernel.getFormula() == Formula.MANDELBROT ? PrecisionTier.forViewport(viewport)
+                : PrecisionTier.DOUBLE;
+        if (tier == PrecisionTier.PERTURBATION) {
+            return start(job, new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    final PerturbationRenderer perturbation = new PerturbationRenderer(viewport, numIterations, job.cancelled);
+                    if (job.isCancelled())
+                        return;
+                    new AntiAliaser(job, frame, new AntiAliaser.Sampler() {
+                        @Override
+                        public int iterate(double x, double y) {
+                            return perturbation.iterate(viewport.offsetX(x), viewport.offsetY(y));
+                        }
+
+                        @Override
+                        public float escapeValue(double x, double y, int iterations) {
+                            return Float.NaN;
+                        }
+                    }, palette, rgb, samples, threshold, listener).createTask().invoke();
+                }
+            }, listener);
+        }
+
+        AntiAliaser.Sampler sampler;
+        if (tier == PrecisionTier.DOUBLE_DOUBLE) {
+            final DoubleDoubleRenderer doubleDouble = new DoubleDoubleRenderer(viewport, numIterations);
+            sampler = new AntiAliaser.Sampler() {
+                @Override
+                public int iterate(double x, double y) {
+                    return doubleDouble.iterate(viewport.offsetX(x), viewport.offsetY(y));
+                }
+
+                @Override
+                public float escapeValue(double x, double y, int iterations) {
+                    return Float.NaN;
+                }
+            };
+        } else {
+            sampler = new AntiAliaser.Sampler() {
+                @Override
+                public int iterate(double x, double y) {
+                    return kernel.mandelbrot(viewport.calculateX(x), viewport.calculateY(y), numIterations);
+                }
+
+                @Override
+                public float escapeValue(double x, double y, int iterations) {
+                    return (float) kernel.smoothValue(viewport.calculateX(x), viewport.calculateY(y), iterations);
+                }
+            };
+        }
+        return start(job, new AntiAliaser(job, frame, sampler, palette, rgb, samples, threshold, listener).createTask(), listener);
+    }
+
+    private static RecursiveAction midZoom(final RenderJob job, RenderListener listener) {
+        final Viewport viewport = job.viewport;
+        final DoubleDoubleRenderer doubleDouble = new DoubleDoubleRenderer(viewport, job.numIterations);
+        return new TileRenderer(job, new TileRenderer.Spans() {
+            @Override
+            public void renderSpan(int y, int x, int count, TileRenderer.Scratch scratch) {
+                doubleDouble.renderSpan(y, x, count, job.iterations);
+            }
+
+            @Override
+            public int sample(int x, int y) {
+                return doubleDouble.iterate(x, y);
+            }
+        }, listener).createTask();
+    }
+
+    //The reference orbit is part of the job, so submit doesn't block on it. Always tiled, subdivision needs a kernel.
+    private static RecursiveAction deepZoom(final RenderJob job, final RenderListener listener) {
+        return new RecursiveAction() {
+            @Override
+            protected void compute() {
+                final Viewport viewport = job.viewport;
+                final PerturbationRenderer perturbation = new PerturbationRenderer(viewport, job.numIterations, job.cancelled);
+                if (job.isCancelled())
+                    return;
+
+                new TileRenderer(job, new TileRenderer.Spans() {
+                    @Override
+                    public void renderSpan(int y, int x, int count, TileRenderer.Scratch scratch) {
+                        perturbation.renderSpan(y, x, count, job.iterations);
+                    }
+
+                    @Override
+                    public int sample(int x, int y) {
+                        return perturbation.iterate(viewport.offsetX(x), viewport.offsetY(y));
+                    }
+                }, listener).createTask().invoke();
+            }
+        };
+    }
+
+    private RenderJob start(final RenderJob job, final RecursiveAction work, final RenderListener listener) {
+        //The task is set before it can run, so listeners always see a complete job
+        job.task = new RecursiveAction() {
+            @Override
+            protected void compute() {
+                metrics.started(job);
+                try {
+                    work.invoke();
+                } finally {
+                    metrics.completed(job);
+                }
+                if (!job.isCancelled() && listener != null)
+                    listener.renderFinished(job);
+            }
+        };
+        pool.execute(job.task);
+        return job;
+    }
+
+    private static void await(RenderJob job) throws InterruptedException {
+        try {
+            job.await();
+        } catch (InterruptedException e) {
+            job.cancel();
+            throw e;
+        }
+    }
+
+    private static void checkBuffer(Viewport viewport, int[] iterations) {
+        if (iterations.length < viewport.getArea())
+            throw new IllegalArgumentException("Buffer too small for " + viewport);
+    }
+
+    //Stops the worker threads, the engine can't be used afterwards
+    public void shutdown() {
+        pool.shutdownNow();
+        synchronized (this) {
+            if (mbeanName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+                } catch (JMException e) {
+                    //Already gone
+                }
+                mbeanName = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package mandelbrot;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One render submitted to a {@link RenderEngine}. Owns its iteration buffer, so a job that gets superseded can
+ * never write into the buffer of the one that replaced it.
+ * <p>
+ * Cancelling only sets a flag. Workers check it between tile rows and before every queued task, so a cancelled
+ * job stops within one row of work per thread and its remaining tasks drain without iterating.
+ */
+public class RenderJob {
+    final Viewport viewport;
+    final int numIterations;
+    final int[] iterations;
+    //Smooth escape values next to the counts, null if they aren't wanted
+    final float[] smooth;
+    //Pixels to skip and to mark as they are done, null renders all of them
+    final PixelMask known;
+    //Only every stride-th row and column is rendered, for coarse passes
+    final int stride;
+    //Where to keep the orbits that run out of iterations, and orbits of a lower limit to carry on first
+    final OrbitState orbits, resume;
+    final AtomicBoolean cancelled = new AtomicBoolean();
+    final RenderStats stats = new RenderStats();
+    volatile ForkJoinTask<?> task;
+
+    RenderJob(Viewport viewport, int numIterations, int[] iterations) {
+        this(viewport, numIterations, iterations, null, null, 1);
+    }
+
+    RenderJob(Viewport viewport, int numIterations, int[] iterations, float[] smooth, PixelMask known, int stride) {
+        this(viewport, numIterations, iterations, smooth, known, stride, null, null);
+    }
+
+    RenderJob(FrameBuffer frame, int stride) {
+        this(frame.viewport, frame.numIterations, frame.iterations, frame.smooth, frame.known, stride,
+                frame.orbits, stride == 1 ? frame.resume : null);
+    }
+
+    private RenderJob(Viewport viewport, int numIterations, int[] iterations, float[] smooth, PixelMask known,
+                      int stride, OrbitState orbits, OrbitState resume) {
+        this.orbits = orbits;
+        this.resume = resume;
+        this.viewport = viewport;
+        this.numIterations = numIterations;
+        this.iterations = iterations;
+        this.smooth = smooth;
+        this.known = known;
+        this.stride = stride;
+    }
+
+    public Viewport getViewport() {
+        return viewport;
+    }
+
+    public int getNumIterations() {
+        return numIterations;
+    }
+
+    //Only complete once the job is done, tiles arrive as the listener reports them
+    public int[] getIterations() {
+        return iterations;
+    }
+
+    public float[] getSmooth() {
+        return smooth;
+    }
+
+    public PixelMask getKnown() {
+        return known;
+    }
+
+    public int getStride() {
+        return stride;
+    }
+
+    //Counts so far while the job runs, all of them once it is done
+    public RenderStats getStats() {
+        return stats;
+    }
+
+    //Doesn't wait, returns straight away
+    public void cancel() {
+        stats.cancelRequested();
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    public boolean isDone() {
+        return task.isDone();
+    }
+
+    //Blocks until the job finishes. Throws CancellationException if it was cancelled instead.
+    public void await() throws InterruptedException {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            cancel();
+            throw new IllegalStateException("Render of " + viewport + " failed", e.getCause());
+        }
+        if (isCancelled())
+            throw new CancellationException("Render of " + viewport + " was cancelled");
+    }
+
+    //Like await, but gives up after timeout and returns false if the job is still running then
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            task.get(timeout, unit);
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            cancel();
+            throw new IllegalStateException("Render of " + viewport + " failed", e.getCause());
+        }
+        if (isCancelled())
+            throw new CancellationException("Render of " + viewport + " was cancelled");
+        return true;
+    }
+}
@@ -0,0 +1,13 @@
+package mandelbrot;
+
+/**
+ * Callback for {@link RenderEngine} renders. Called from the engine's worker threads, so implementations
+ * must be thread-safe and should return quickly.
+ */
+public interface RenderListener {
+    //The given pixel region of the iteration buffer has its final values
+    void tileRendered(int x, int y, int width, int height);
+
+    //Every pixel is in, not called for jobs that were cancelled
+    void renderFinished(RenderJob job);
+}
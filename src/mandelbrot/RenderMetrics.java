@@ -0,0 +1,199 @@
+package mandelbrot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals over every render of one {@link RenderEngine}, for sizing machines and spotting regressions: pixels and
+ * iterations per second, the interior and escaped split, time each worker spent iterating or idle, how long jobs
+ * waited for a worker and how long a cancel took to stop one. Each job's {@link RenderStats} is added in when the
+ * job completes, so reading the totals never touches a running render.
+ * <p>
+ * {@link RenderEngine#registerMBean} shows these over JMX, {@link MetricsListener}s get every job's stats.
+ */
+public final class RenderMetrics implements RenderMetricsMXBean {
+    //Key of the busy time of workers the pool has retired
+    public static final String RETIRED = "retired";
+
+    private final LongAdder started = new LongAdder(), finished = new LongAdder(), cancelled = new LongAdder();
+    private final LongAdder pixels = new LongAdder(), iterations = new LongAdder(), interior = new LongAdder();
+    private final LongAdder queueWaitNanos = new LongAdder(), renderNanos = new LongAdder();
+    private final LongAdder cancelLatencyNanos = new LongAdder(), cancelsTimed = new LongAdder();
+    private final AtomicLong maxCancelLatencyNanos = new AtomicLong();
+    //Per live worker, a retiring one's time folds into retiredBusyNanos so the map doesn't grow with the pool's churn
+    private final ConcurrentHashMap<String, LongAdder> busyNanos = new ConcurrentHashMap<String, LongAdder>();
+    private final LongAdder retiredBusyNanos = new LongAdder();
+    //Workers alive now and when they started, the pool retires idle ones and names their replacements afresh
+    private final ConcurrentHashMap<String, Long> workers = new ConcurrentHashMap<String, Long>();
+    private final CopyOnWriteArrayList<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+    private volatile long since = System.nanoTime();
+
+    RenderMetrics() {
+    }
+
+    public void addListener(MetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    //On a pool thread, as it starts and as it retires
+    void workerStarted(String thread) {
+        busyNanos.put(thread, new LongAdder());
+        workers.put(thread, System.nanoTime());
+    }
+
+    void workerRetired(String thread) {
+        workers.remove(thread);
+        LongAdder busy = busyNanos.remove(thread);
+        if (busy != null)
+            retiredBusyNanos.add(busy.sum());
+    }
+
+    //On the worker, as the job starts
+    void started(RenderJob job) {
+        job.stats.started();
+        started.increment();
+        queueWaitNanos.add(job.stats.getQueueWaitNanos());
+    }
+
+    //On the worker, once the job has stopped, finished or not
+    void completed(RenderJob job) {
+        RenderStats stats = job.stats;
+        stats.finished();
+        if (job.isCancelled()) {
+            cancelled.increment();
+            long latency = stats.getCancelLatencyNanos();
+            if (latency >= 0) {
+                cancelLatencyNanos.add(latency);
+                cancelsTimed.increment();
+                long max;
+                while (latency > (max = maxCancelLatencyNanos.get()) && !maxCancelLatencyNanos.compareAndSet(max, latency)) {
+                }
+            }
+        } else {
+            finished.increment();
+        }
+        pixels.add(stats.getPixels());
+        iterations.add(stats.getIterations());
+        interior.add(stats.getInteriorPixels());
+        renderNanos.add(stats.getRenderNanos());
+        //A tile's worker may have retired since, its time then goes with the other retired workers'
+        for (Map.Entry<String, LongAdder> e : stats.busyNanos.entrySet()) {
+            LongAdder busy = busyNanos.get(e.getKey());
+            (busy != null ? busy : retiredBusyNanos).add(e.getValue().sum());
+        }
+
+        //A listener that throws mustn't take the render down with it, or keep the others from hearing
+        for (MetricsListener listener : listeners) {
+            try {
+                listener.renderCompleted(job, stats);
+            } catch (RuntimeException e) {
+                System.err.println("Metrics listener " + listener + " failed: " + e);
+            }
+        }
+    }
+
+    @Override
+    public long getRendersStarted() {
+        return started.sum();
+    }
+
+    @Override
+    public long getRendersFinished() {
+        return finished.sum();
+    }
+
+    @Override
+    public long getRendersCancelled() {
+        return cancelled.sum();
+    }
+
+    @Override
+    public long getPixels() {
+        return pixels.sum();
+    }
+
+    @Override
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    @Override
+    public long getInteriorPixels() {
+        return interior.sum();
+    }
+
+    @Override
+    public long getEscapedPixels() {
+        return pixels.sum() - interior.sum();
+    }
+
+    //Pixels over the summed wall-clock time of the renders, renders running side by side count separately
+    @Override
+    public double getPixelsPerSecond() {
+        long nanos = renderNanos.sum();
+        return nanos <= 0 ? 0 : pixels.sum() * 1e9 / nanos;
+    }
+
+    @Override
+    public double getMeanQueueWaitMillis() {
+        long n = started.sum();
+        return n == 0 ? 0 : queueWaitNanos.sum() / 1e6 / n;
+    }
+
+    @Override
+    public double getMeanCancelLatencyMillis() {
+        long n = cancelsTimed.sum();
+        return n == 0 ? 0 : cancelLatencyNanos.sum() / 1e6 / n;
+    }
+
+    @Override
+    public double getMaxCancelLatencyMillis() {
+        return maxCancelLatencyNanos.get() / 1e6;
+    }
+
+    //Completed renders only, live workers by name and the retired ones together under RETIRED
+    @Override
+    public Map<String, Long> getBusyMillisByThread() {
+        Map<String, Long> busy = new HashMap<String, Long>();
+        for (Map.Entry<String, LongAdder> e : busyNanos.entrySet())
+            busy.put(e.getKey(), e.getValue().sum() / 1000000);
+        busy.put(RETIRED, retiredBusyNanos.sum() / 1000000);
+        return Collections.unmodifiableMap(busy);
+    }
+
+    //Time each live worker wasn't iterating since it started or the reset, workers that never ran a tile included
+    @Override
+    public Map<String, Long> getIdleMillisByThread() {
+        long now = System.nanoTime(), since = this.since;
+        Map<String, Long> busy = getBusyMillisByThread();
+        Map<String, Long> idle = new HashMap<String, Long>();
+        for (Map.Entry<String, Long> e : workers.entrySet()) {
+            long elapsed = (now - Math.max(since, e.getValue())) / 1000000;
+            Long busyMillis = busy.get(e.getKey());
+            idle.put(e.getKey(), Math.max(0, elapsed - (busyMillis == null ? 0 : busyMillis)));
+        }
+        return Collections.unmodifiableMap(idle);
+    }
+
+    //Counts from renders running across the reset end up in the new totals
+    @Override
+    public void reset() {
+        since = System.nanoTime();
+        for (LongAdder adder : new LongAdder[]{started, finished, cancelled, pixels, iterations, interior,
+                queueWaitNanos, renderNanos, cancelLatencyNanos, cancelsTimed, retiredBusyNanos})
+            adder.reset();
+        maxCancelLatencyNanos.set(0);
+        //The live workers keep their entries
+        for (LongAdder busy : busyNanos.values())
+            busy.reset();
+    }
+}
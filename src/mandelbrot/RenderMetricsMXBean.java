@@ -0,0 +1,37 @@
+package mandelbrot;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link RenderMetrics}, what a {@link RenderEngine} shows over JMX. Counts are totals
+ * since the engine started or the last {@link #reset}.
+ */
+public interface RenderMetricsMXBean {
+    long getRendersStarted();
+
+    long getRendersFinished();
+
+    long getRendersCancelled();
+
+    long getPixels();
+
+    long getIterations();
+
+    long getInteriorPixels();
+
+    long getEscapedPixels();
+
+    double getPixelsPerSecond();
+
+    double getMeanQueueWaitMillis();
+
+    double getMeanCancelLatencyMillis();
+
+    double getMaxCancelLatencyMillis();
+
+    Map<String, Long> getBusyMillisByThread();
+
+    Map<String, Long> getIdleMillisByThread();
+
+    void reset();
+}
@@ -0,0 +1,12 @@
+package mandelbrot;
+
+/**
+ * How {@link RenderEngine} walks the pixels of a Mandelbrot frame.
+ */
+public enum RenderMode {
+    //Every pixel is iterated, the frame is split into tiles sized by their estimated cost
+    TILED,
+    //Mariani-Silver: only rectangle borders are iterated, a rectangle with a uniform border is filled with that
+    //value and any other one is split in two and recursed on the fork-join pool
+    SUBDIVISION
+}
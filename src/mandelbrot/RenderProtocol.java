@@ -0,0 +1,78 @@
+package mandelbrot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+
+/**
+ * The wire format between a {@link RenderCoordinator} and its {@link RenderWorker}s, over one TCP connection per
+ * worker. Everything is big-endian, as {@link DataOutputStream} writes it.
+ * <p>
+ * A worker opens with {@link #MAGIC}, {@link #VERSION} and its number of render threads. The coordinator then
+ * sends {@link #TILE} messages: an id, the tile's viewport, the iteration limit, whether smooth values are
+ * wanted and the name of the {@link Formula}. The worker answers every tile in the order it got them with a
+ * {@link #RESULT}, the counts and smooth values of the tile in row-major order, or a {@link #FAILED} with the
+ * reason, and sends {@link #HEARTBEAT}s while a tile renders. The coordinator closing the connection tells the worker there is nothing more to do.
+ */
+final class RenderProtocol {
+    static final int MAGIC = 0x4d425257;
+    static final int VERSION = 2;
+    //Coordinator to worker
+    static final byte TILE = 1;
+    //Worker to coordinator
+    static final byte RESULT = 1, FAILED = 2, HEARTBEAT = 3;
+    //How often a worker says it is still at a tile
+    static final int HEARTBEAT_MILLIS = 5000;
+
+    private RenderProtocol() {
+    }
+
+    //Centres go as exact decimals, so deep zooms reach the workers intact
+    static void writeViewport(DataOutputStream out, Viewport viewport) throws IOException {
+        out.writeUTF(viewport.centreX.toString());
+        out.writeUTF(viewport.centreY.toString());
+        out.writeDouble(viewport.pixelWidth);
+        out.writeDouble(viewport.pixelHeight);
+        out.writeInt(viewport.width);
+        out.writeInt(viewport.height);
+    }
+
+    static Viewport readViewport(DataInputStream in) throws IOException {
+        try {
+            return Viewport.centred(new BigDecimal(in.readUTF()), new BigDecimal(in.readUTF()), in.readDouble(),
+                    in.readDouble(), in.readInt(), in.readInt());
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Bad viewport: " + e.getMessage(), e);
+        }
+    }
+
+    static void writeInts(DataOutputStream out, int[] values, int count) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(count * 4);
+        bytes.asIntBuffer().put(values, 0, count);
+        out.write(bytes.array());
+    }
+
+    static int[] readInts(DataInputStream in, int count) throws IOException {
+        byte[] bytes = new byte[count * 4];
+        in.readFully(bytes);
+        int[] values = new int[count];
+        ByteBuffer.wrap(bytes).asIntBuffer().get(values);
+        return values;
+    }
+
+    static void writeFloats(DataOutputStream out, float[] values, int count) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(count * 4);
+        bytes.asFloatBuffer().put(values, 0, count);
+        out.write(bytes.array());
+    }
+
+    static float[] readFloats(DataInputStream in, int count) throws IOException {
+        byte[] bytes = new byte[count * 4];
+        in.readFully(bytes);
+        float[] values = new float[count];
+        ByteBuffer.wrap(bytes).asFloatBuffer().get(values);
+        return values;
+    }
+}
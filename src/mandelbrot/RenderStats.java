@@ -0,0 +1,131 @@
+package mandelbrot;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What one {@link RenderJob} did: pixels iterated, the iterations they took, how many of them escaped, the time
+ * each worker thread spent iterating them, and when the job was queued, started, asked to cancel and finished.
+ * <p>
+ * Workers count into a {@link Tally} of their own while they iterate and add it here once per tile, into striped
+ * {@link LongAdder}s, so the counting stays out of the escape loop and threads don't contend on it. Pixels a
+ * renderer fills without iterating, like the insides of uniform rectangles in {@link RenderMode#SUBDIVISION} or
+ * pixels copied from an earlier frame, aren't counted. Interior pixels are counted at the limit even when a
+ * shortcut proved them early, so the iterations are an upper bound of what the kernel executed.
+ */
+public final class RenderStats {
+    final LongAdder pixels = new LongAdder(), iterations = new LongAdder(), interior = new LongAdder();
+    final ConcurrentHashMap<String, LongAdder> busyNanos = new ConcurrentHashMap<String, LongAdder>();
+    final long submitted = System.nanoTime();
+    volatile long started, finished, cancelRequested;
+
+    public long getPixels() {
+        return pixels.sum();
+    }
+
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    //Pixels that reached the limit
+    public long getInteriorPixels() {
+        return interior.sum();
+    }
+
+    public long getEscapedPixels() {
+        return pixels.sum() - interior.sum();
+    }
+
+    //Time spent iterating by each worker thread, by thread name
+    public Map<String, Long> getBusyNanos() {
+        Map<String, Long> busy = new HashMap<String, Long>();
+        for (Map.Entry<String, LongAdder> e : busyNanos.entrySet())
+            busy.put(e.getKey(), e.getValue().sum());
+        return Collections.unmodifiableMap(busy);
+    }
+
+    //From submit until a worker picked the job up
+    public long getQueueWaitNanos() {
+        return started == 0 ? -1 : started - submitted;
+    }
+
+    //From the start on a worker until done, -1 while it runs
+    public long getRenderNanos() {
+        return finished == 0 || started == 0 ? -1 : finished - started;
+    }
+
+    //From the first cancel until the job stopped, -1 if it wasn't cancelled or hasn't stopped
+    public long getCancelLatencyNanos() {
+        return cancelRequested == 0 || finished == 0 ? -1 : finished - cancelRequested;
+    }
+
+    //Pixels iterated per second of the job's wall-clock time
+    public double getPixelsPerSecond() {
+        long nanos = getRenderNanos();
+        return nanos <= 0 ? 0 : getPixels() * 1e9 / nanos;
+    }
+
+    void started() {
+        started = System.nanoTime();
+    }
+
+    void finished() {
+        finished = System.nanoTime();
+    }
+
+    void cancelRequested() {
+        if (cancelRequested == 0)
+            cancelRequested = System.nanoTime();
+    }
+
+    //Adds what the calling thread iterated, and how long it took
+    void record(Tally tally, long nanos) {
+        if (tally.pixels == 0)
+            return;
+        pixels.add(tally.pixels);
+        iterations.add(tally.iterations);
+        interior.add(tally.interior);
+        String thread = Thread.currentThread().getName();
+        LongAdder busy = busyNanos.get(thread);
+        if (busy == null) {
+            LongAdder added = busyNanos.putIfAbsent(thread, busy = new LongAdder());
+            if (added != null)
+                busy = added;
+        }
+        busy.add(nanos);
+        tally.pixels = tally.iterations = tally.interior = 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d pixels, %d iterations, %d interior, %.0f pixels/s, queued %.1f ms, rendered %.1f ms",
+                getPixels(), getIterations(), getInteriorPixels(), getPixelsPerSecond(),
+                getQueueWaitNanos() / 1e6, getRenderNanos() / 1e6);
+    }
+
+    //Plain counters of one worker's tile, added to the job in one go
+    static final class Tally {
+        final int numIterations;
+        long pixels, iterations, interior;
+
+        Tally(int numIterations) {
+            this.numIterations = numIterations;
+        }
+
+        void count(int n) {
+            pixels++;
+            iterations += n;
+            if (n >= numIterations)
+                interior++;
+        }
+
+        //A run of a row-major buffer
+        void count(int[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++)
+                count(buffer[i]);
+        }
+    }
+}
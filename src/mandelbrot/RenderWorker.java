@@ -0,0 +1,153 @@
+package mandelbrot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders tiles for a {@link RenderCoordinator} on this machine's cores, in a JVM of its own:
+ * <pre>
+ * java mandelbrot.MandelBrot worker coordinator-host:port [threads=N]
+ * </pre>
+ * Tiles go through {@link RenderEngine#submit(FrameBuffer, int, RenderListener)} like the window's renders, so
+ * a worker picks the precision tier and kernel a local render of the tile would. It keeps at most one tile
+ * rendering and leaves the next ones in the socket, the coordinator decides how many it gets.
+ * <p>
+ * A worker can be started before its coordinator and keeps trying to connect for {@link #CONNECT_ATTEMPTS}
+ * seconds. It exits when the coordinator closes the connection.
+ */
+public class RenderWorker {
+    static final int CONNECT_ATTEMPTS = 30;
+
+    final RenderEngine engine;
+    private long tilesRendered;
+    //Name of the formula the engine is set to, tiles of the same frame don't set it again
+    private String formula;
+
+    public RenderWorker(RenderEngine engine) {
+        this.engine = engine;
+    }
+
+    public long getTilesRendered() {
+        return tilesRendered;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length == 0 || args[0].lastIndexOf(':') <= 0) {
+            System.err.println("Usage: worker host:port [threads=N]");
+            System.exit(1);
+        }
+        int split = args[0].lastIndexOf(':');
+        String host = args[0].substring(0, split);
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            int port = Integer.parseInt(args[0].substring(split + 1));
+            for (int i = 1; i < args.length; i++) {
+                if (!args[i].startsWith("threads="))
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+                threads = Integer.parseInt(args[i].substring("threads=".length()).trim());
+            }
+            RenderWorker worker = new RenderWorker(new RenderEngine(threads));
+            try {
+                worker.run(host, port);
+            } finally {
+                worker.engine.shutdown();
+            }
+            System.out.println("Worker done after " + worker.getTilesRendered() + " tiles");
+        } catch (IllegalArgumentException e) {
+            //NumberFormatException included
+            System.err.println(e.getMessage());
+            System.err.println("Usage: worker host:port [threads=N]");
+            System.exit(1);
+        }
+    }
+
+    //Renders what the coordinator at host:port sends until it closes the connection
+    public void run(String host, int port) throws IOException, InterruptedException {
+        Socket socket = connect(host, port);
+        try {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            out.writeInt(RenderProtocol.MAGIC);
+            out.writeInt(RenderProtocol.VERSION);
+            out.writeInt(engine.getNumThreads());
+            out.flush();
+
+            while (true) {
+                int type = in.read();
+                if (type < 0)
+                    return;
+                if (type != RenderProtocol.TILE)
+                    throw new IOException("Unknown message " + type + " from the coordinator");
+                int id = in.readInt();
+                Viewport viewport = RenderProtocol.readViewport(in);
+                int numIterations = in.readInt();
+                boolean smooth = in.readBoolean();
+                String name = in.readUTF();
+                if (!name.equals(formula)) {
+                    try {
+                        engine.setFormula(Formula.forName(name));
+                    } catch (IllegalArgumentException e) {
+                        throw new IOException("Coordinator sent an unknown formula: " + name, e);
+                    }
+                    formula = name;
+                }
+                render(id, new FrameBuffer(viewport, numIterations, smooth), out);
+                out.flush();
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private void render(int id, FrameBuffer frame, DataOutputStream out) throws IOException, InterruptedException {
+        int area = frame.viewport.getArea();
+        try {
+            RenderJob job = engine.submit(frame, 1, null);
+            boolean done = false;
+            try {
+                //Silence for longer than its timeout makes the coordinator give the tile to someone else
+                while (!job.await(RenderProtocol.HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    out.writeByte(RenderProtocol.HEARTBEAT);
+                    out.flush();
+                }
+                done = true;
+            } finally {
+                //The connection went or we were interrupted
+                if (!done)
+                    job.cancel();
+            }
+        } catch (IllegalStateException e) {
+            //The render threw, the coordinator retries the tile elsewhere
+            out.writeByte(RenderProtocol.FAILED);
+            out.writeInt(id);
+            out.writeUTF(String.valueOf(e.getCause()));
+            return;
+        }
+        out.writeByte(RenderProtocol.RESULT);
+        out.writeInt(id);
+        RenderProtocol.writeInts(out, frame.iterations, area);
+        if (frame.smooth != null)
+            RenderProtocol.writeFloats(out, frame.smooth, area);
+        tilesRendered++;
+    }
+
+    private static Socket connect(String host, int port) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return new Socket(host, port);
+            } catch (ConnectException e) {
+                if (attempt >= CONNECT_ATTEMPTS)
+                    throw e;
+                Thread.sleep(1000);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package mandelbrot;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders an image of any size straight to a PNG file, for posters that don't fit in memory as a
+ * {@code BufferedImage}. The image is cut into strips of whole rows that the engine renders one after another on
+ * every core. A writer thread colours each finished strip and feeds it to a {@link PngWriter} while the next ones
+ * render.
+ * <p>
+ * Strips are about {@link #STRIP_PIXELS} pixels whatever the width, and at most {@link #QUEUE_SIZE} finished
+ * strips wait for the writer; when it falls behind, rendering blocks until it catches up. Peak heap is a few
+ * strips, independent of the image size. The file is written under a {@code .part} name and only renamed once
+ * the image is complete.
+ * <p>
+ * With anti-aliasing the edges of each strip are supersampled on the pool before it is queued. Pixels on the first
+ * and last row of a strip only see their neighbours inside it.
+ */
+public class StreamingRenderer {
+    static final int STRIP_PIXELS = 1 << 21;
+    static final int QUEUE_SIZE = 2;
+
+    final RenderEngine engine;
+    final Palette palette;
+    final boolean smooth;
+    final int compression;
+    final int antialias, antialiasThreshold;
+    private RenderCoordinator coordinator;
+
+    public StreamingRenderer(RenderEngine engine, Palette palette, boolean smooth, int compression) {
+        this(engine, palette, smooth, compression, 1, 0);
+    }
+
+    //Samples per axis on edge pixels, see AntiAliaser, 1 turns it off
+    public StreamingRenderer(RenderEngine engine, Palette palette, boolean smooth, int compression,
+                             int antialias, int antialiasThreshold) {
+        this.engine = engine;
+        this.palette = palette;
+        this.smooth = smooth;
+        this.compression = compression;
+        this.antialias = antialias;
+        this.antialiasThreshold = antialiasThreshold;
+    }
+
+    //Renders the strips on the coordinator's workers instead of the engine, anti-aliasing stays on the engine
+    public void setCoordinator(RenderCoordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    public void render(Viewport viewport, int numIterations, File file) throws IOException, InterruptedException {
+        final int rowsPerStrip = Math.max(1, Math.min(viewport.height, STRIP_PIXELS / viewport.width));
+        final int strips = (viewport.height + rowsPerStrip - 1) / rowsPerStrip;
+        final BlockingQueue<Strip> queue = new ArrayBlockingQueue<Strip>(QUEUE_SIZE);
+        final File partial = new File(file.getPath() + ".part");
+        final PngWriter png = new PngWriter(new BufferedOutputStream(new FileOutputStream(partial), 1 << 16),
+                viewport.width, viewport.height, compression);
+
+        ExecutorService writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "strip-writer");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        Future<?> writing = writer.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                boolean finished = false;
+                try {
+                    int[] rgb = new int[png.getWidth() * rowsPerStrip];
+                    for (int s = 0; s < strips; s++) {
+                        Strip strip = queue.take();
+                        FrameBuffer frame = strip.frame;
+                        Viewport v = frame.getViewport();
+                        if (strip.rgb != null)
+                            png.writeRows(strip.rgb, 0, v.height);
+                        else {
+                            palette.paint(frame.iterations, frame.smooth, frame.numIterations, rgb, v.width, 0, 0, v.width, v.height);
+                            png.writeRows(rgb, 0, v.height);
+                        }
+                    }
+                    finished = true;
+                } finally {
+                    if (finished)
+                        png.close();
+                    else
+                        png.abort();
+                }
+                return null;
+            }
+        });
+
+        boolean complete = false;
+        try {
+            long start = System.currentTimeMillis();
+            for (int y = 0; y < viewport.height; y += rowsPerStrip) {
+                int rows = Math.min(rowsPerStrip, viewport.height - y);
+                FrameBuffer frame = new FrameBuffer(strip(viewport, y, rows), numIterations, smooth);
+                if (coordinator != null)
+                    coordinator.render(frame, engine.getFormula());
+                else
+                    engine.submit(frame, 1, null).await();
+                int[] rgb = null;
+                if (antialias > 1) {
+                    rgb = new int[frame.iterations.length];
+                    engine.submitAntiAliased(frame, palette, rgb, antialias, antialiasThreshold, null).await();
+                }
+                Strip strip = new Strip(frame, rgb);
+                //Blocks while the writer is behind, and stops if it died
+                boolean queued;
+                while (!(queued = queue.offer(strip, 100, TimeUnit.MILLISECONDS)) && !writing.isDone()) {
+                }
+                if (!queued)
+                    break;
+                System.out.println("Rows " + (y + rows) + " of " + viewport.height + " after "
+                        + (System.currentTimeMillis() - start) / 1000d + " s");
+            }
+            try {
+                writing.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Writing " + file + " failed", e.getCause());
+            }
+            complete = true;
+        } finally {
+            writer.shutdownNow();
+            if (!complete) {
+                writer.awaitTermination(10, TimeUnit.SECONDS);
+                partial.delete();
+            }
+        }
+        if (!partial.renameTo(file) && !(file.delete() && partial.renameTo(file)))
+            throw new IOException("Can't rename " + partial + " to " + file);
+    }
+
+    //A rendered strip, with its colours if they were anti-aliased
+    static final class Strip {
+        final FrameBuffer frame;
+        final int[] rgb;
+
+        Strip(FrameBuffer frame, int[] rgb) {
+            this.frame = frame;
+            this.rgb = rgb;
+        }
+    }
+
+    //The rows from y of viewport, on exactly the same pixel grid
+    static Viewport strip(Viewport viewport, int y, int rows) {
+        return viewport.crop(0, y, viewport.width, rows);
+    }
+}
@@ -0,0 +1,165 @@
+package mandelbrot;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Mariani-Silver rectangle subdivision for one Mandelbrot frame. The level sets of the escape count are
+ * connected, so when the whole border of a rectangle has the same count the inside has it too and can be filled
+ * without iterating. Large interior regions and flat bands then cost only their outline.
+ * <p>
+ * Every task gets a rectangle whose border is already computed. It either fills the inside, iterates it directly
+ * when it is small, or computes a line through the middle and forks the two halves, whose borders are then
+ * complete. Regions are reported to the listener exactly once, so they can be used to count progress.
+ */
+class SubdivisionRenderer {
+    //Rectangles with fewer inner rows or columns than this are iterated pixel by pixel
+    static final int MIN_SPLIT = 6;
+    static final int LINE_CHUNK = 64;
+
+    final Viewport viewport;
+    final EscapeKernel kernel;
+    final int numIterations;
+    final int[] iterations;
+    final RenderListener listener;
+    final AtomicBoolean cancelled;
+    final RenderStats stats;
+
+    SubdivisionRenderer(RenderJob job, EscapeKernel kernel, RenderListener listener) {
+        this.viewport = job.viewport;
+        this.kernel = kernel;
+        this.numIterations = job.numIterations;
+        this.iterations = job.iterations;
+        this.listener = listener;
+        this.cancelled = job.cancelled;
+        this.stats = job.stats;
+    }
+
+    //Computes the outer border of the frame and returns the task for everything inside it
+    RecursiveAction createTask() {
+        final int right = viewport.width - 1, bottom = viewport.height - 1;
+        return new RecursiveAction() {
+            @Override
+            protected void compute() {
+                computeRow(0, 0, right);
+                if (bottom > 0)
+                    computeRow(bottom, 0, right);
+                if (bottom > 1) {
+                    computeColumn(0, 1, bottom - 1);
+                    if (right > 0)
+                        computeColumn(right, 1, bottom - 1);
+                }
+                if (right > 1 && bottom > 1)
+                    new Rectangle(0, 0, right, bottom).compute();
+            }
+        };
+    }
+
+    //Inclusive bounds, the border pixels are already in the buffer
+    class Rectangle extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int x0, y0, x1, y1;
+
+        Rectangle(int x0, int y0, int x1, int y1) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get())
+                return;
+
+            final int innerWidth = x1 - x0 - 1, innerHeight = y1 - y0 - 1;
+            if (innerWidth <= 0 || innerHeight <= 0)
+                return;
+
+            int value = uniformBorder();
+            if (value >= 0) {
+                for (int y = y0 + 1; y < y1; y++) {
+                    int offset = y * viewport.width;
+                    for (int x = x0 + 1; x < x1; x++)
+                        iterations[offset + x] = value;
+                }
+                report(x0 + 1, y0 + 1, innerWidth, innerHeight);
+                return;
+            }
+
+            if (innerWidth < MIN_SPLIT && innerHeight < MIN_SPLIT) {
+                long start = System.nanoTime();
+                RenderStats.Tally tally = new RenderStats.Tally(numIterations);
+                for (int y = y0 + 1; y < y1; y++) {
+                    kernel.mandelbrotRow(viewport, y, x0 + 1, innerWidth, numIterations, iterations);
+                    tally.count(iterations, y * viewport.width + x0 + 1, innerWidth);
+                }
+                stats.record(tally, System.nanoTime() - start);
+                report(x0 + 1, y0 + 1, innerWidth, innerHeight);
+                return;
+            }
+
+            //Split across the longer side, the dividing line becomes a shared border of both halves
+            if (innerWidth >= innerHeight) {
+                int xm = (x0 + x1) >>> 1;
+                computeColumn(xm, y0 + 1, y1 - 1);
+                invokeAll(new Rectangle(x0, y0, xm, y1), new Rectangle(xm, y0, x1, y1));
+            } else {
+                int ym = (y0 + y1) >>> 1;
+                computeRow(ym, x0 + 1, x1 - 1);
+                invokeAll(new Rectangle(x0, y0, x1, ym), new Rectangle(x0, ym, x1, y1));
+            }
+        }
+
+        //The shared border value, or -1 if it isn't uniform
+        private int uniformBorder() {
+            final int width = viewport.width;
+            final int value = iterations[y0 * width + x0];
+            for (int x = x0; x <= x1; x++) {
+                if (iterations[y0 * width + x] != value || iterations[y1 * width + x] != value)
+                    return -1;
+            }
+            for (int y = y0 + 1; y < y1; y++) {
+                if (iterations[y * width + x0] != value || iterations[y * width + x1] != value)
+                    return -1;
+            }
+            return value;
+        }
+    }
+
+    //Lines are done in chunks so a cancel doesn't wait for a whole frame-wide line
+    void computeRow(int y, int fromX, int toX) {
+        long start = System.nanoTime();
+        RenderStats.Tally tally = new RenderStats.Tally(numIterations);
+        for (int x = fromX; x <= toX && !cancelled.get(); x += LINE_CHUNK) {
+            int count = Math.min(LINE_CHUNK, toX - x + 1);
+            kernel.mandelbrotRow(viewport, y, x, count, numIterations, iterations);
+            tally.count(iterations, y * viewport.width + x, count);
+        }
+        stats.record(tally, System.nanoTime() - start);
+        if (!cancelled.get())
+            report(fromX, y, toX - fromX + 1, 1);
+    }
+
+    void computeColumn(int x, int fromY, int toY) {
+        final double cx = viewport.calculateX(x);
+        long start = System.nanoTime();
+        RenderStats.Tally tally = new RenderStats.Tally(numIterations);
+        for (int y = fromY; y <= toY; y++) {
+            if ((y - fromY) % LINE_CHUNK == 0 && cancelled.get())
+                break;
+            int n = kernel.mandelbrot(cx, viewport.calculateY(y), numIterations);
+            iterations[y * viewport.width + x] = n;
+            tally.count(n);
+        }
+        stats.record(tally, System.nanoTime() - start);
+        if (!cancelled.get())
+            report(x, fromY, 1, toY - fromY + 1);
+    }
+
+    void report(int x, int y, int width, int height) {
+        if (listener != null)
+            listener.tileRendered(x, y, width, height);
+    }
+}
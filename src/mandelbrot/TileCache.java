@@ -0,0 +1,442 @@
+package mandelbrot;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory-bounded cache of iteration counts in {@link #TILE_SIZE} square tiles, so views that come back, like
+ * zooming out along the way in or picking a favourite, are copied instead of rendered.
+ * <p>
+ * Tiles sit on a lattice fixed in the complex plane rather than in any one viewport: every pixel size has its
+ * own grid of absolute pixel indices, counted from the origin and held as {@link BigInteger}s so they don't run
+ * out at deep zooms. Two viewports share tiles whenever their pixels land on the same grid, which is the case
+ * after integer pans and for any view reached again the same way. A key is that tile position plus the pixel
+ * size, where the grid sits within a pixel, the iteration limit, the {@link PrecisionTier} and, for Julia sets,
+ * the point c.
+ * <p>
+ * Tiles hold counts as chars when the limit fits, ints otherwise, with a marker for pixels that weren't known
+ * when they were stored. The least recently used tiles are evicted once the cache holds more than its byte
+ * budget. Thread-safe, every method locks the cache, but not while it waits on the disk.
+ * <p>
+ * A cache can sit in front of a {@link TileStore}. Tiles it doesn't have in memory are then looked up on disk,
+ * and tiles of zooms deep enough to leave plain doubles are written through to it as they are stored.
+ */
+public class TileCache {
+    public static final int TILE_SIZE = 64;
+    //How finely the position of the grid within a pixel is told apart
+    static final double PHASE_STEPS = 1 << 10;
+    //Rough size of a map entry and its key, on top of the counts
+    static final int ENTRY_OVERHEAD = 160;
+    //Shallower tiles are cheap to render again and aren't worth the disk
+    static final PrecisionTier PERSISTED_TIER = PrecisionTier.DOUBLE_DOUBLE;
+
+    private static final BigInteger TILE = BigInteger.valueOf(TILE_SIZE);
+
+    private final long maxBytes;
+    private final TileStore store;
+    private final LinkedHashMap<Key, Tile> tiles = new LinkedHashMap<Key, Tile>(256, 0.75f, true);
+    //Held by a store from changing the tiles until they're on disk
+    private final Object writes = new Object();
+    private long bytes;
+    private long hits, storeHits, misses, evictions;
+
+    public TileCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    //Store may be null for a cache that only lives in memory
+    public TileCache(long maxBytes, TileStore store) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+        this.maxBytes = maxBytes;
+        this.store = store;
+    }
+
+    public TileStore getStore() {
+        return store;
+    }
+
+    //Copies every cached count the frame doesn't have yet into it and returns how many pixels that was.
+    //Tiles hold counts only, frames with smooth values are left alone.
+    public int load(FrameBuffer frame) {
+        if (frame.smooth != null)
+            return 0;
+        return load(frame.viewport, frame.numIterations, Double.NaN, Double.NaN, frame.iterations, frame.known);
+    }
+
+    //Stores the pixels the frame has, only read a frame once its render is done
+    public void store(FrameBuffer frame) {
+        store(frame.viewport, frame.numIterations, Double.NaN, Double.NaN, frame.iterations, frame.known);
+    }
+
+    public int loadJulia(Viewport viewport, double complexX, double complexY, int numIterations,
+                         int[] iterations, PixelMask known) {
+        return load(viewport, numIterations, complexX, complexY, iterations, known);
+    }
+
+    //A null mask stores every pixel
+    public void storeJulia(Viewport viewport, double complexX, double complexY, int numIterations,
+                           int[] iterations, PixelMask known) {
+        store(viewport, numIterations, complexX, complexY, iterations, known);
+    }
+
+    private synchronized int load(Viewport viewport, int numIterations, double juliaX, double juliaY,
+                                  int[] iterations, PixelMask known) {
+        Lattice lattice = new Lattice(viewport);
+        int width = viewport.width, loaded = 0;
+        for (int ty = 0; ty < lattice.rows; ty++) {
+            for (int tx = 0; tx < lattice.columns; tx++) {
+                Key key = lattice.key(tx, ty, numIterations, juliaX, juliaY);
+                Tile tile = tiles.get(key);
+                if (tile != null) {
+                    hits++;
+                } else if ((tile = readStore(key)) != null) {
+                    storeHits++;
+                    tiles.put(key, tile);
+                    bytes += tile.bytes();
+                } else {
+                    misses++;
+                    continue;
+                }
+
+                int x0 = lattice.x0 + tx * TILE_SIZE, y0 = lattice.y0 + ty * TILE_SIZE;
+                for (int y = Math.max(y0, 0); y < Math.min(y0 + TILE_SIZE, viewport.height); y++) {
+                    for (int x = Math.max(x0, 0); x < Math.min(x0 + TILE_SIZE, width); x++) {
+                        int i = y * width + x;
+                        if (known.known[i])
+                            continue;
+                        int count = tile.get((y - y0) * TILE_SIZE + x - x0);
+                        if (count >= 0) {
+                            iterations[i] = count;
+                            known.known[i] = true;
+                            loaded++;
+                        }
+                    }
+                }
+            }
+        }
+        evict();
+        return loaded;
+    }
+
+    private Tile readStore(Key key) {
+        if (store == null)
+            return null;
+        try {
+            return store.read(key);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    //The disk write happens outside the cache's lock, so loads and the counts don't wait on it. Stores still go
+    //one at a time: a tile is only changed while its store holds the writes lock, so the write sees it whole,
+    //and a later version of a tile can't reach the disk before an earlier one.
+    private void store(Viewport viewport, int numIterations, double juliaX, double juliaY, int[] iterations,
+                       PixelMask known) {
+        synchronized (writes) {
+            List<Map.Entry<Key, Tile>> changed = add(viewport, numIterations, juliaX, juliaY, iterations, known);
+            if (!changed.isEmpty()) {
+                try {
+                    store.write(changed);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    //Puts the counts into the tiles and hands back the ones to write through to the store
+    private synchronized List<Map.Entry<Key, Tile>> add(Viewport viewport, int numIterations, double juliaX,
+                                                        double juliaY, int[] iterations, PixelMask known) {
+        Lattice lattice = new Lattice(viewport);
+        boolean persist = store != null && lattice.tier.compareTo(PERSISTED_TIER) >= 0;
+        List<Map.Entry<Key, Tile>> changed = new ArrayList<Map.Entry<Key, Tile>>();
+        int width = viewport.width;
+        for (int ty = 0; ty < lattice.rows; ty++) {
+            for (int tx = 0; tx < lattice.columns; tx++) {
+                Key key = lattice.key(tx, ty, numIterations, juliaX, juliaY);
+                Tile tile = tiles.get(key);
+                if (tile == null && persist)
+                    tile = readStore(key);
+                boolean added = false;
+
+                //Adds to what an earlier view left in the tile
+                int x0 = lattice.x0 + tx * TILE_SIZE, y0 = lattice.y0 + ty * TILE_SIZE;
+                for (int y = Math.max(y0, 0); y < Math.min(y0 + TILE_SIZE, viewport.height); y++) {
+                    for (int x = Math.max(x0, 0); x < Math.min(x0 + TILE_SIZE, width); x++) {
+                        int i = y * width + x;
+                        int t = (y - y0) * TILE_SIZE + x - x0;
+                        if ((known != null && !known.known[i]) || (tile != null && tile.get(t) >= 0))
+                            continue;
+                        if (tile == null) {
+                            tile = new Tile(numIterations);
+                        } else if (tile.isReadOnly()) {
+                            tile = tile.copy();
+                        }
+                        tile.set(t, iterations[i]);
+                        added = true;
+                    }
+                }
+
+                if (added) {
+                    Tile old = tiles.put(key, tile);
+                    bytes += tile.bytes() - (old != null ? old.bytes() : 0);
+                    if (persist)
+                        changed.add(new AbstractMap.SimpleImmutableEntry<Key, Tile>(key, tile));
+                }
+            }
+        }
+        evict();
+        return changed;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Tile>> eldest = tiles.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return tiles.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    //Tiles that weren't in memory but were found in the store
+    public synchronized long getStoreHits() {
+        return storeHits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TileCache " + tiles.size() + " tiles, " + (bytes >> 10) + "/" + (maxBytes >> 10) + " KB, "
+                + hits + " hits, " + storeHits + " from disk, " + misses + " misses, " + evictions + " evictions";
+    }
+
+    //Where a viewport sits on the absolute pixel grid of its pixel size, and which tiles it touches
+    static final class Lattice {
+        final Viewport viewport;
+        final PrecisionTier tier;
+        //Absolute index of the tile holding pixel (0, 0), and where in the viewport that tile starts
+        final BigInteger firstX, firstY;
+        final int x0, y0;
+        final int columns, rows;
+        final int phaseX, phaseY;
+
+        Lattice(Viewport viewport) {
+            this.viewport = viewport;
+            this.tier = PrecisionTier.forViewport(viewport);
+
+            //Pixel (x, y) is at absolute column u + x and row v + y, rows counting down the imaginary axis
+            BigDecimal u = divide(viewport.centreX, viewport.pixelWidth).subtract(BigDecimal.valueOf(viewport.width / 2.0));
+            BigDecimal v = divide(viewport.centreY, viewport.pixelHeight).negate().subtract(BigDecimal.valueOf(viewport.height / 2.0));
+            BigInteger column = u.setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+            BigInteger row = v.setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+            phaseX = phase(u.subtract(new BigDecimal(column)));
+            phaseY = phase(v.subtract(new BigDecimal(row)));
+
+            BigInteger[] x = floorDivide(column);
+            BigInteger[] y = floorDivide(row);
+            firstX = x[0];
+            firstY = y[0];
+            x0 = -x[1].intValue();
+            y0 = -y[1].intValue();
+            columns = (viewport.width - x0 + TILE_SIZE - 1) / TILE_SIZE;
+            rows = (viewport.height - y0 + TILE_SIZE - 1) / TILE_SIZE;
+        }
+
+        Key key(int tx, int ty, int numIterations, double juliaX, double juliaY) {
+            return new Key(viewport.pixelWidth, viewport.pixelHeight, phaseX, phaseY,
+                    firstX.add(BigInteger.valueOf(tx)), firstY.add(BigInteger.valueOf(ty)),
+                    numIterations, tier, juliaX, juliaY);
+        }
+
+        //Enough digits for the integer part of the index and a good deal of its fraction
+        private static BigDecimal divide(BigDecimal coordinate, double pixelSize) {
+            double magnitude = Math.abs(coordinate.doubleValue() / pixelSize);
+            int digits = (int) Math.ceil(Math.log10(magnitude + 1)) + 16;
+            return coordinate.divide(new BigDecimal(pixelSize), new MathContext(digits, RoundingMode.HALF_EVEN));
+        }
+
+        //Half a pixel either way, in steps of 1/PHASE_STEPS
+        private static int phase(BigDecimal fraction) {
+            return (int) Math.round(fraction.doubleValue() * PHASE_STEPS);
+        }
+
+        //Tile index and offset within it, rounding towards negative infinity
+        private static BigInteger[] floorDivide(BigInteger index) {
+            BigInteger[] qr = index.divideAndRemainder(TILE);
+            if (qr[1].signum() < 0) {
+                qr[0] = qr[0].subtract(BigInteger.ONE);
+                qr[1] = qr[1].add(TILE);
+            }
+            return qr;
+        }
+    }
+
+    static final class Key {
+        final long pixelWidth, pixelHeight;
+        final int phaseX, phaseY;
+        final BigInteger tileX, tileY;
+        final int numIterations;
+        final PrecisionTier tier;
+        //NaN for the Mandelbrot set
+        final long juliaX, juliaY;
+        final int hash;
+
+        Key(double pixelWidth, double pixelHeight, int phaseX, int phaseY, BigInteger tileX, BigInteger tileY,
+            int numIterations, PrecisionTier tier, double juliaX, double juliaY) {
+            this.pixelWidth = Double.doubleToLongBits(pixelWidth);
+            this.pixelHeight = Double.doubleToLongBits(pixelHeight);
+            this.phaseX = phaseX;
+            this.phaseY = phaseY;
+            this.tileX = tileX;
+            this.tileY = tileY;
+            this.numIterations = numIterations;
+            this.tier = tier;
+            this.juliaX = Double.doubleToLongBits(juliaX);
+            this.juliaY = Double.doubleToLongBits(juliaY);
+
+            int h = tileX.hashCode();
+            h = 31 * h + tileY.hashCode();
+            h = 31 * h + (int) (this.pixelWidth ^ (this.pixelWidth >>> 32));
+            h = 31 * h + (int) (this.pixelHeight ^ (this.pixelHeight >>> 32));
+            h = 31 * h + phaseX;
+            h = 31 * h + phaseY;
+            h = 31 * h + numIterations;
+            h = 31 * h + tier.hashCode();
+            h = 31 * h + (int) (this.juliaX ^ (this.juliaX >>> 32));
+            h = 31 * h + (int) (this.juliaY ^ (this.juliaY >>> 32));
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && pixelWidth == k.pixelWidth && pixelHeight == k.pixelHeight
+                    && phaseX == k.phaseX && phaseY == k.phaseY && numIterations == k.numIterations
+                    && tier == k.tier && juliaX == k.juliaX && juliaY == k.juliaY
+                    && tileX.equals(k.tileX) && tileY.equals(k.tileY);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    //Counts of one tile, -1 where a pixel isn't known. Chars hold limits up to 65534, twice as many tiles fit.
+    //Tiles read from a TileStore are read-only views of the mapped file and are copied before they change.
+    static final class Tile {
+        static final char MISSING = Character.MAX_VALUE;
+        static final int PIXELS = TILE_SIZE * TILE_SIZE;
+
+        final CharBuffer small;
+        final IntBuffer large;
+
+        Tile(int numIterations) {
+            if (numIterations < MISSING) {
+                char[] counts = new char[PIXELS];
+                Arrays.fill(counts, MISSING);
+                small = CharBuffer.wrap(counts);
+                large = null;
+            } else {
+                int[] counts = new int[PIXELS];
+                Arrays.fill(counts, -1);
+                small = null;
+                large = IntBuffer.wrap(counts);
+            }
+        }
+
+        Tile(CharBuffer small, IntBuffer large) {
+            this.small = small;
+            this.large = large;
+        }
+
+        int get(int i) {
+            if (small != null) {
+                char count = small.get(i);
+                return count == MISSING ? -1 : count;
+            }
+            return large.get(i);
+        }
+
+        void set(int i, int count) {
+            if (small != null)
+                small.put(i, (char) count);
+            else
+                large.put(i, count);
+        }
+
+        boolean isReadOnly() {
+            return small != null ? small.isReadOnly() : large.isReadOnly();
+        }
+
+        //A heap copy that can be written to
+        Tile copy() {
+            if (small != null) {
+                char[] counts = new char[PIXELS];
+                CharBuffer view = small.duplicate();
+                view.clear();
+                view.get(counts);
+                return new Tile(CharBuffer.wrap(counts), null);
+            }
+            int[] counts = new int[PIXELS];
+            IntBuffer view = large.duplicate();
+            view.clear();
+            view.get(counts);
+            return new Tile(null, IntBuffer.wrap(counts));
+        }
+
+        //Only heap tiles count their counts, mapped ones live in the page cache
+        int bytes() {
+            if (isReadOnly())
+                return ENTRY_OVERHEAD;
+            return (small != null ? 2 : 4) * PIXELS + ENTRY_OVERHEAD;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package mandelbrot;
+
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Splits a frame into tiles for the fork-join pool. Each task samples a few of its pixels to estimate how many
+ * iterations it will cost, and keeps halving while that is above {@link #LEAF_COST}. Cheap regions (fast
+ * escapes, detected interior) stay as big tiles, expensive boundary regions go down to {@link #MIN_TILE}, and
+ * idle workers steal the larger halves still queued on busy ones.
+ * <p>
+ * Split points are kept on multiples of {@link #ALIGN} columns so a tile row starts on its own cache lines in the
+ * buffer, and leaves are walked row by row.
+ * <p>
+ * A job with a {@link PixelMask} only has its unknown pixels iterated, in runs, and known pixels stand in for
+ * samples in the cost estimate. A job with a stride above one only renders every stride-th row and column.
+ */
+class TileRenderer {
+    static final int ALIGN = 16;
+    static final int MIN_TILE = 16;
+    //Above this a tile is always split, whatever the samples say
+    static final int MAX_TILE_AREA = 128 * 128;
+    //Iterations a leaf is allowed to cost, about a millisecond of work
+    static final long LEAF_COST = 1L << 20;
+
+    //Computes count pixels of row y from column x, and iterates a single pixel for the cost estimate
+    interface Spans {
+        void renderSpan(int y, int x, int count, Scratch scratch);
+
+        int sample(int x, int y);
+    }
+
+    //Arrays a leaf lends to each of its spans, made on first use and grown to the longest span
+    static final class Scratch {
+        private double[] zr = new double[0], zi = new double[0];
+
+        double[] zr(int count) {
+            if (zr.length < count)
+                zr = new double[count];
+            return zr;
+        }
+
+        double[] zi(int count) {
+            if (zi.length < count)
+                zi = new double[count];
+            return zi;
+        }
+    }
+
+    final Viewport viewport;
+    final int[] iterations;
+    final PixelMask known;
+    final int stride;
+    final Spans spans;
+    final RenderListener listener;
+    final AtomicBoolean cancelled;
+    final int numIterations;
+    final RenderStats stats;
+
+    TileRenderer(RenderJob job, Spans spans, RenderListener listener) {
+        this.viewport = job.viewport;
+        this.iterations = job.iterations;
+        this.known = job.known;
+        this.stride = job.stride;
+        this.spans = spans;
+        this.listener = listener;
+        this.cancelled = job.cancelled;
+        this.numIterations = job.numIterations;
+        this.stats = job.stats;
+    }
+
+    RecursiveAction createTask() {
+        return new Tile(0, 0, viewport.width, viewport.height);
+    }
+
+    class Tile extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final int x, y, width, height;
+        RenderStats.Tally tally;
+        Scratch scratch;
+
+        Tile(int x, int y, int width, int height) {
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        protected void compute() {
+            if (cancelled.get())
+                return;
+
+            if (shouldSplit()) {
+                if (width >= height) {
+                    int half = alignedHalf(width);
+                    invokeAll(new Tile(x, y, half, height), new Tile(x + half, y, width - half, height));
+                } else {
+                    int half = height >>> 1;
+                    invokeAll(new Tile(x, y, width, half), new Tile(x, y + half, width, height - half));
+                }
+                return;
+            }
+
+            long start = System.nanoTime();
+            tally = new RenderStats.Tally(numIterations);
+            scratch = new Scratch();
+            for (int row = y; row < y + height; row++) {
+                if (cancelled.get())
+                    break;
+                if (stride > 1)
+                    renderLattice(row);
+                else if (known != null)
+                    renderUnknown(row);
+                else
+                    render(row, x, width);
+            }
+            stats.record(tally, System.nanoTime() - start);
+            if (cancelled.get())
+                return;
+            if (listener != null)
+                listener.tileRendered(x, y, width, height);
+        }
+
+        //Runs of pixels the mask doesn't have yet
+        private void renderUnknown(int row) {
+            int end = x + width;
+            for (int i = known.nextUnknown(row, x, end); i < end; i = known.nextUnknown(row, i, end)) {
+                int run = known.nextKnown(row, i, end) - i;
+                render(row, i, run);
+                known.set(row, i, run);
+                i += run;
+            }
+        }
+
+        private void renderLattice(int row) {
+            if (row % stride != 0)
+                return;
+            for (int i = (x + stride - 1) / stride * stride; i < x + width; i += stride) {
+                if (known == null) {
+                    render(row, i, 1);
+                } else if (!known.isKnown(i, row)) {
+                    render(row, i, 1);
+                    known.set(row, i, 1);
+                }
+            }
+        }
+
+        private void render(int row, int from, int count) {
+            spans.renderSpan(row, from, count, scratch);
+            tally.count(iterations, row * viewport.width + from, count);
+        }
+
+        private boolean shouldSplit() {
+            if (width < 2 * MIN_TILE && height < 2 * MIN_TILE)
+                return false;
+            if (width * height > MAX_TILE_AREA)
+                return true;
+            if (known != null && known.isKnown(x, y, width, height))
+                return false;
+
+            //Corners and centre, mean iterations times the pixels this pass renders
+            long sampled = sample(x, y)
+                    + sample(x + width - 1, y)
+                    + sample(x, y + height - 1)
+                    + sample(x + width - 1, y + height - 1)
+                    + sample(x + width / 2, y + height / 2);
+            return sampled * width * height / (5 * stride * stride) > LEAF_COST;
+        }
+    }
+
+    //Known pixels are free samples
+    private int sample(int x, int y) {
+        if (known != null && known.isKnown(x, y))
+            return iterations[y * viewport.width + x];
+        return spans.sample(x, y);
+    }
+
+    //Half of the width rounded to the alignment, falls back to a plain half for narrow tiles
+    static int alignedHalf(int width) {
+        int half = (width >>> 1) & ~(ALIGN - 1);
+        return half >= MIN_TILE ? half : width >>> 1;
+    }
+}
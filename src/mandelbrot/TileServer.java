@@ -0,0 +1,540 @@
+package mandelbrot;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.JMException;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Serves tiles of {@link #TILE_SIZE} pixels over HTTP, for dashboards and map viewers, on the JDK's built-in
+ * {@code com.sun.net.httpserver}:
+ * <pre>
+ * GET /{z}/{x}/{y}.png   coloured tile, ?palette=FIRE&amp;smooth=true
+ * GET /{z}/{x}/{y}.raw   the counts as big-endian ints, row by row
+ * GET /stats             what the server has done, as text
+ * </pre>
+ * Both take {@code ?iterations=N}. Zoom 0 is one tile covering the square of side 4 around -0.5, and every zoom
+ * level splits each tile into four, x to the right and y down, as map viewers expect. Tile centres are exact
+ * decimals, so deep zoom levels render on the perturbation tier like the window's deep zooms.
+ * <p>
+ * Connections are handled on virtual threads where the JDK has them (21 on), looked up by reflection so this
+ * still runs on Java 8, and on a cached pool of platform threads otherwise. Handler threads only wait; the
+ * iterating is done by the {@link RenderEngine}'s bounded pool. At most {@code maxQueued} renders are admitted
+ * at a time, running or waiting for the pool, and a request for a tile that would need one more gets 503 with
+ * {@code Retry-After} straight away rather than queueing without bound.
+ * <p>
+ * Concurrent requests for the same tile share one render: the first one renders and the others wait for it. The
+ * counts of recent tiles are kept up to {@code cacheBytes}, so panning back doesn't render again.
+ */
+public class TileServer implements Closeable {
+    public static final int TILE_SIZE = 256;
+    //Deepest level whose tiles a long can number, x and y run to 2^zoom - 1
+    static final int MAX_ZOOM = 62;
+    //Side of the square zoom 0 covers, and its corner
+    static final double WORLD = 4;
+    static final double WORLD_X = -2.5, WORLD_Y = 2;
+    static final String RETRY_AFTER_SECONDS = "1";
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+
+    private final RenderEngine engine;
+    private final HttpServer server;
+    private final ExecutorService connections;
+    private final boolean virtualThreads;
+    private final int defaultIterations, maxIterations;
+    private final Palette palette;
+    private final int compression;
+    private final Semaphore admission;
+    private final Map<Key, CompletableFuture<Tile>> rendering = new ConcurrentHashMap<Key, CompletableFuture<Tile>>();
+    private final TileLru cache;
+    private final AtomicLong requests = new AtomicLong(), cacheHits = new AtomicLong(), shared = new AtomicLong(),
+            renders = new AtomicLong(), rejected = new AtomicLong(), failed = new AtomicLong();
+
+    //maxQueued renders admitted at once, cacheBytes of counts kept for tiles that come back
+    public TileServer(RenderEngine engine, int port, int maxQueued, long cacheBytes, int defaultIterations,
+                      int maxIterations, Palette palette, int compression) throws IOException {
+        if (maxQueued <= 0)
+            throw new IllegalArgumentException("Need room for at least one render: " + maxQueued);
+        if (defaultIterations <= 0 || maxIterations < defaultIterations)
+            throw new IllegalArgumentException("Iterations must be positive and at most the maximum: "
+                    + defaultIterations + ", " + maxIterations);
+        this.engine = engine;
+        this.defaultIterations = defaultIterations;
+        this.maxIterations = maxIterations;
+        this.palette = palette;
+        this.compression = compression;
+        this.admission = new Semaphore(maxQueued);
+        this.cache = new TileLru(cacheBytes);
+
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.connections = virtual != null ? virtual : Executors.newCachedThreadPool(new ThreadFactory() {
+            final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "tile-http-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.setExecutor(connections);
+        server.start();
+    }
+
+    //Executors.newVirtualThreadPerTaskExecutor if this JDK has it, null otherwise
+    static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            return null;
+        } catch (InvocationTargetException e) {
+            //19 and 20 have the method, but only with preview features on
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        try {
+            Properties config = BatchRenderer.parse(args);
+            int threads = intProperty(config, "threads", Runtime.getRuntime().availableProcessors());
+            RenderEngine engine = new RenderEngine(threads);
+            engine.setFormula(Formula.forName(config.getProperty("formula", Formula.MANDELBROT.getName())));
+            int iterations = intProperty(config, "iterations", 1000);
+            TileServer server = new TileServer(engine, intProperty(config, "port", 8080),
+                    intProperty(config, "queue", threads * 4), intProperty(config, "cache", 256) * (1L << 20),
+                    iterations, intProperty(config, "max.iterations", Math.max(iterations, 100000)),
+                    Palette.valueOf(config.getProperty("palette", Palette.HUE.name()).trim().toUpperCase(Locale.ROOT)),
+                    intProperty(config, "compression", 1));
+            engine.registerMBean("tiles");
+            System.out.println("Serving tiles on port " + server.getPort() + " with " + threads + " render threads, "
+                    + (server.hasVirtualThreads() ? "virtual" : "platform") + " connection threads");
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: serve [config.properties] [port=8080] [threads=N] [queue=N] [cache=MB] "
+                    + "[iterations=N] [max.iterations=N] [palette=NAME] [formula=NAME] [compression=0-9]");
+            System.exit(1);
+        } catch (JMException e) {
+            //Serving works without it
+            System.err.println("No JMX metrics: " + e);
+        }
+        //The HTTP server's dispatcher thread keeps the JVM running
+    }
+
+    private static int intProperty(Properties config, String key, int defaultValue) {
+        String value = config.getProperty(key);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number for " + key + ": " + value);
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public boolean hasVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public RenderEngine getEngine() {
+        return engine;
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    //Requests that waited for a render another request had started
+    public long getSharedRenders() {
+        return shared.get();
+    }
+
+    public long getRenders() {
+        return renders.get();
+    }
+
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    //Stops listening, waiting up to delaySeconds for exchanges in progress. Leaves the engine running.
+    public void stop(int delaySeconds) {
+        server.stop(delaySeconds);
+        connections.shutdown();
+    }
+
+    @Override
+    public void close() {
+        stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        String method = exchange.getRequestMethod();
+        if (!method.equals("GET") && !method.equals("HEAD")) {
+            exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+            send(exchange, 405, "text/plain", "Only GET and HEAD\n");
+            return;
+        }
+        URI uri = exchange.getRequestURI();
+        String path = uri.getPath();
+        if (path.equals("/stats")) {
+            send(exchange, 200, "text/plain", stats());
+            return;
+        }
+
+        Request request;
+        try {
+            request = parse(path, uri.getRawQuery());
+        } catch (IllegalArgumentException e) {
+            send(exchange, 400, "text/plain", e.getMessage() + "\n");
+            return;
+        }
+        if (request == null) {
+            send(exchange, 404, "text/plain", "No tile at " + path + ", expected /z/x/y.png or /z/x/y.raw\n");
+            return;
+        }
+
+        Tile tile;
+        try {
+            tile = tile(request.key);
+        } catch (RejectedExecutionException e) {
+            exchange.getResponseHeaders().set("Retry-After", RETRY_AFTER_SECONDS);
+            send(exchange, 503, "text/plain", "Too many tiles rendering, try again\n");
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            send(exchange, 503, "text/plain", "Server is stopping\n");
+            return;
+        } catch (ExecutionException e) {
+            failed.incrementAndGet();
+            send(exchange, 500, "text/plain", "Render failed: " + e.getCause() + "\n");
+            return;
+        }
+
+        //Tiles never change, viewers may keep them
+        exchange.getResponseHeaders().set("Cache-Control", "public, max-age=86400");
+        exchange.getResponseHeaders().set("X-Iterations", String.valueOf(request.key.numIterations));
+        if (request.raw) {
+            ByteBuffer bytes = ByteBuffer.allocate(tile.iterations.length * 4);
+            bytes.asIntBuffer().put(tile.iterations);
+            exchange.getResponseHeaders().set("X-Tile-Size", String.valueOf(TILE_SIZE));
+            send(exchange, 200, "application/octet-stream", bytes.array());
+        } else {
+            send(exchange, 200, "image/png", png(tile, request.palette));
+        }
+    }
+
+    //The tile's counts from the cache, from a render another request started, or from a new render
+    Tile tile(Key key) throws InterruptedException, ExecutionException {
+        Tile cached = cache.get(key);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            return cached;
+        }
+        CompletableFuture<Tile> mine = new CompletableFuture<Tile>();
+        CompletableFuture<Tile> pending = rendering.putIfAbsent(key, mine);
+        if (pending != null) {
+            shared.incrementAndGet();
+            try {
+                return pending.get();
+            } catch (ExecutionException e) {
+                //Turned away or stopped for the request that was rendering it, so for this one too
+                if (e.getCause() instanceof RejectedExecutionException)
+                    throw (RejectedExecutionException) e.getCause();
+                throw e;
+            }
+        }
+        //The key leaves the map before the future completes, so nobody joins a render that has ended
+        Tile tile;
+        try {
+            //It may have landed between the cache miss and taking the key
+            tile = cache.get(key);
+            if (tile == null) {
+                if (!admission.tryAcquire()) {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException("Render queue is full");
+                }
+                try {
+                    tile = render(key);
+                } finally {
+                    admission.release();
+                }
+                renders.incrementAndGet();
+                cache.put(key, tile);
+            }
+        } catch (RuntimeException e) {
+            rendering.remove(key, mine);
+            mine.completeExceptionally(e);
+            if (e instanceof RejectedExecutionException)
+                throw e;
+            //A failed or cancelled render answers this request the way it answers the ones sharing it
+            throw new ExecutionException(e);
+        } catch (InterruptedException e) {
+            rendering.remove(key, mine);
+            mine.completeExceptionally(new RejectedExecutionException("Render was interrupted"));
+            throw e;
+        }
+        rendering.remove(key, mine);
+        mine.complete(tile);
+        return tile;
+    }
+
+    private Tile render(Key key) throws InterruptedException {
+        FrameBuffer frame = new FrameBuffer(viewport(key.zoom, key.x, key.y), key.numIterations, key.smooth);
+        RenderJob job = engine.submit(frame, 1, null);
+        try {
+            job.await();
+        } catch (InterruptedException e) {
+            job.cancel();
+            throw e;
+        }
+        return new Tile(frame.iterations, frame.smooth, frame.numIterations);
+    }
+
+    //Exact centre, so the tile sits on the same grid at any depth
+    static Viewport viewport(int zoom, long x, long y) {
+        double side = Math.scalb(WORLD, -zoom);
+        double pixel = side / TILE_SIZE;
+        BigDecimal exactSide = new BigDecimal(side);
+        BigDecimal centreX = new BigDecimal(WORLD_X).add(exactSide.multiply(new BigDecimal(x).add(HALF)));
+        BigDecimal centreY = new BigDecimal(WORLD_Y).subtract(exactSide.multiply(new BigDecimal(y).add(HALF)));
+        return Viewport.centred(centreX, centreY, pixel, pixel, TILE_SIZE, TILE_SIZE);
+    }
+
+    private byte[] png(Tile tile, Palette palette) throws IOException {
+        int[] rgb = new int[TILE_SIZE * TILE_SIZE];
+        palette.paint(tile.iterations, tile.smooth, tile.numIterations, rgb, TILE_SIZE, 0, 0, TILE_SIZE, TILE_SIZE);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 14);
+        PngWriter png = new PngWriter(bytes, TILE_SIZE, TILE_SIZE, compression);
+        png.writeRows(rgb, 0, TILE_SIZE);
+        png.close();
+        return bytes.toByteArray();
+    }
+
+    //Null for paths that aren't tiles, IllegalArgumentException for tiles asked for wrongly
+    Request parse(String path, String query) {
+        String[] parts = path.split("/");
+        if (parts.length != 4 || !parts[0].isEmpty())
+            return null;
+        String last = parts[3];
+        boolean raw;
+        if (last.endsWith(".png"))
+            raw = false;
+        else if (last.endsWith(".raw"))
+            raw = true;
+        else
+            return null;
+        int zoom;
+        long x, y;
+        try {
+            zoom = Integer.parseInt(parts[1]);
+            x = Long.parseLong(parts[2]);
+            y = Long.parseLong(last.substring(0, last.length() - 4));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (zoom < 0 || zoom > MAX_ZOOM || x < 0 || y < 0 || x >> zoom != 0 || y >> zoom != 0)
+            return null;
+
+        Map<String, String> parameters = query(query);
+        int numIterations = defaultIterations;
+        String value = parameters.get("iterations");
+        if (value != null) {
+            try {
+                numIterations = Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not a number of iterations: " + value);
+            }
+            if (numIterations <= 0 || numIterations > maxIterations)
+                throw new IllegalArgumentException("Iterations must be 1 to " + maxIterations + ": " + numIterations);
+        }
+        Palette palette = this.palette;
+        value = parameters.get("palette");
+        if (value != null) {
+            try {
+                palette = Palette.valueOf(value.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown palette " + value);
+            }
+        }
+        //Raw tiles are counts only
+        boolean smooth = !raw && Boolean.parseBoolean(parameters.get("smooth"));
+        return new Request(new Key(zoom, x, y, numIterations, smooth), raw, palette);
+    }
+
+    private static Map<String, String> query(String query) {
+        Map<String, String> parameters = new LinkedHashMap<String, String>();
+        if (query == null)
+            return parameters;
+        for (String pair : query.split("&")) {
+            int split = pair.indexOf('=');
+            if (split > 0)
+                parameters.put(pair.substring(0, split), pair.substring(split + 1));
+        }
+        return parameters;
+    }
+
+    String stats() {
+        RenderMetrics metrics = engine.getMetrics();
+        return String.format(Locale.ROOT, "requests %d%ncache hits %d%nshared renders %d%nrenders %d%n"
+                        + "rejected %d%nfailed %d%ncached tiles %d%nrendering %d%npixels/s %.0f%nqueue wait ms %.2f%n"
+                        + "connection threads %s%n", requests.get(), cacheHits.get(), shared.get(), renders.get(),
+                rejected.get(), failed.get(), cache.size(), rendering.size(), metrics.getPixelsPerSecond(),
+                metrics.getMeanQueueWaitMillis(), virtualThreads ? "virtual" : "platform");
+    }
+
+    private static void send(HttpExchange exchange, int status, String type, String body) throws IOException {
+        send(exchange, status, type + "; charset=utf-8", body.getBytes("UTF-8"));
+    }
+
+    private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        boolean head = exchange.getRequestMethod().equals("HEAD");
+        //-1 says there is no body
+        exchange.sendResponseHeaders(status, head ? -1 : body.length);
+        if (!head) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    //What a tile is rendered from, the palette is applied afterwards
+    static final class Key {
+        final int zoom;
+        final long x, y;
+        final int numIterations;
+        final boolean smooth;
+
+        Key(int zoom, long x, long y, int numIterations, boolean smooth) {
+            this.zoom = zoom;
+            this.x = x;
+            this.y = y;
+            this.numIterations = numIterations;
+            this.smooth = smooth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key key = (Key) o;
+            return zoom == key.zoom && x == key.x && y == key.y && numIterations == key.numIterations
+                    && smooth == key.smooth;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = zoom;
+            hash = 31 * hash + (int) (x ^ (x >>> 32));
+            hash = 31 * hash + (int) (y ^ (y >>> 32));
+            hash = 31 * hash + numIterations;
+            return 31 * hash + (smooth ? 1 : 0);
+        }
+    }
+
+    static final class Request {
+        final Key key;
+        final boolean raw;
+        final Palette palette;
+
+        Request(Key key, boolean raw, Palette palette) {
+            this.key = key;
+            this.raw = raw;
+            this.palette = palette;
+        }
+    }
+
+    //A rendered tile, never written to once it is out
+    static final class Tile {
+        final int[] iterations;
+        final float[] smooth;
+        final int numIterations;
+
+        Tile(int[] iterations, float[] smooth, int numIterations) {
+            this.iterations = iterations;
+            this.smooth = smooth;
+            this.numIterations = numIterations;
+        }
+
+        long getBytes() {
+            return 4L * iterations.length + (smooth != null ? 4L * smooth.length : 0);
+        }
+    }
+
+    //Least recently used tiles go first once the counts pass the budget
+    static final class TileLru {
+        private final long maxBytes;
+        private final LinkedHashMap<Key, Tile> tiles = new LinkedHashMap<Key, Tile>(16, 0.75f, true);
+        private long bytes;
+
+        TileLru(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        synchronized Tile get(Key key) {
+            return tiles.get(key);
+        }
+
+        synchronized void put(Key key, Tile tile) {
+            Tile old = tiles.put(key, tile);
+            if (old != null)
+                bytes -= old.getBytes();
+            bytes += tile.getBytes();
+            Iterator<Tile> eldest = tiles.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().getBytes();
+                eldest.remove();
+            }
+        }
+
+        synchronized int size() {
+            return tiles.size();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package mandelbrot;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Tiles of a {@link TileCache} kept on disk, so deep zooms that took minutes survive restarts and can be shared
+ * between machines by copying the directory.
+ * <p>
+ * A store is two append-only files. {@code tiles.dat} holds the raw counts of every tile ever written, and
+ * {@code tiles.idx} holds one record per tile with its key, where its counts are and their checksum, with a
+ * checksum of its own. A later record for the same key replaces the earlier one. Counts are written and forced
+ * to disk before the records that point at them, so a crash leaves at worst counts nothing points at and a torn
+ * record at the end of the index, which is cut off the next time the store is opened. Records further up that
+ * fail their checksum, or that this version can't read, are skipped and left in place. Appends and the clean-up
+ * hold an exclusive {@link FileLock} on the index, so several windows can share a directory; records other
+ * processes append show up the next time the store is opened.
+ * <p>
+ * Reads map the data file with {@link FileChannel#map} and hand out read-only views of it. A tile read isn't
+ * copied onto the heap as a whole; {@link TileCache} copies its counts pixel by pixel from the mapping into the
+ * frame that loads them. Everything is big-endian, the files read the same on any machine.
+ */
+public class TileStore implements Closeable {
+    static final int INDEX_MAGIC = 0x4d424958, DATA_MAGIC = 0x4d424454;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final byte CHARS = 0, INTS = 1;
+    //Larger index records are taken for garbage
+    static final int MAX_RECORD = 1 << 12;
+
+    private final File directory;
+    private final FileChannel index, data;
+    private final Map<TileCache.Key, Entry> entries = new HashMap<TileCache.Key, Entry>();
+    private MappedByteBuffer mapped;
+
+    public TileStore(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Can't create tile store " + directory);
+        this.directory = directory;
+        data = open(new File(directory, "tiles.dat"), DATA_MAGIC);
+        try {
+            index = open(new File(directory, "tiles.idx"), INDEX_MAGIC);
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+        try {
+            //Another process may be halfway through an append, which looks torn until it is done
+            FileLock lock = index.lock();
+            try {
+                readIndex();
+            } finally {
+                lock.release();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static FileChannel open(File file, int magic) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() < HEADER_SIZE) {
+                //New file, or one that died before its header was down
+                header.putInt(magic).putInt(VERSION).flip();
+                channel.truncate(0);
+                channel.write(header, 0);
+                channel.force(true);
+            } else {
+                channel.read(header, 0);
+                header.flip();
+                if (header.getInt() != magic || header.getInt() != VERSION)
+                    throw new IOException(file + " is not a version " + VERSION + " tile store file");
+            }
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    //Reads every record it can, skipping ones that fail their checksum or can't be read by this version, and
+    //cuts only a torn tail: a record whose length or body runs past the end, or the last one failing its checksum
+    private void readIndex() throws IOException {
+        //Read rather than mapped, a mapped file can't be truncated on every platform
+        int size = (int) index.size();
+        long dataSize = data.size();
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        while (buffer.hasRemaining() && index.read(buffer, buffer.position()) >= 0) {
+        }
+        int position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (position + 4 <= size) {
+            int length = buffer.getInt(position);
+            //Short length or short body, the append that died
+            if (length <= 0 || length > MAX_RECORD || position + 4 + length + 4 > size)
+                break;
+            int end = position + 4 + length + 4;
+            ByteBuffer record = slice(buffer, position + 4, length);
+            crc.reset();
+            crc.update(record.duplicate());
+            boolean intact = (int) crc.getValue() == buffer.getInt(position + 4 + length);
+            if (!intact && end == size)
+                break;
+            position = end;
+            if (!intact)
+                continue;
+
+            //Records this version can't use, a newer tier say, are skipped and kept for the builds that can
+            TileCache.Key key;
+            Entry entry;
+            try {
+                key = readKey(record);
+                entry = new Entry(record.getLong(), record.getInt(), record.getInt(), record.get());
+            } catch (BufferUnderflowException e) {
+                continue;
+            }
+            if (key != null && entry.offset >= HEADER_SIZE && entry.offset + entry.length <= dataSize)
+                entries.put(key, entry);
+        }
+        if (position < size)
+            index.truncate(position);
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized boolean contains(TileCache.Key key) {
+        return entries.containsKey(key);
+    }
+
+    //A read-only view of the tile's counts in the mapped data file, null if it isn't stored or fails its checksum
+    synchronized TileCache.Tile read(TileCache.Key key) throws IOException {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+
+        ByteBuffer counts = map(entry);
+        CRC32 crc = new CRC32();
+        crc.update(counts.duplicate());
+        if ((int) crc.getValue() != entry.crc) {
+            entries.remove(key);
+            return null;
+        }
+        if (entry.format == CHARS)
+            return new TileCache.Tile(counts.asCharBuffer(), null);
+        return new TileCache.Tile(null, counts.asIntBuffer());
+    }
+
+    //Appends the tiles, counts first and forced, then their index records
+    synchronized void write(List<Map.Entry<TileCache.Key, TileCache.Tile>> tiles) throws IOException {
+        if (tiles.isEmpty())
+            return;
+
+        //Other processes append to the same files, the ends are only read under the lock
+        FileLock lock = index.lock();
+        try {
+            append(tiles);
+        } finally {
+            lock.release();
+        }
+    }
+
+    private void append(List<Map.Entry<TileCache.Key, TileCache.Tile>> tiles) throws IOException {
+        long offset = data.size();
+        Map<TileCache.Key, Entry> written = new HashMap<TileCache.Key, Entry>();
+        for (Map.Entry<TileCache.Key, TileCache.Tile> tile : tiles) {
+            ByteBuffer counts = encode(tile.getValue());
+            CRC32 crc = new CRC32();
+            crc.update(counts.duplicate());
+            Entry entry = new Entry(offset, counts.remaining(), (int) crc.getValue(),
+                    tile.getValue().small != null ? CHARS : INTS);
+            offset += writeFully(data, counts, offset);
+            written.put(tile.getKey(), entry);
+        }
+        data.force(false);
+
+        long position = index.size();
+        for (Map.Entry<TileCache.Key, Entry> entry : written.entrySet()) {
+            ByteBuffer record = ByteBuffer.allocate(MAX_RECORD);
+            record.position(4);
+            writeKey(record, entry.getKey());
+            Entry e = entry.getValue();
+            record.putLong(e.offset).putInt(e.length).putInt(e.crc).put(e.format);
+            int length = record.position() - 4;
+
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), 4, length);
+            record.putInt(0, length).putInt((int) crc.getValue()).flip();
+            position += writeFully(index, record, position);
+        }
+        index.force(false);
+        entries.putAll(written);
+    }
+
+    private static ByteBuffer encode(TileCache.Tile tile) {
+        ByteBuffer counts;
+        if (tile.small != null) {
+            counts = ByteBuffer.allocate(2 * TileCache.Tile.PIXELS);
+            CharBuffer small = tile.small.duplicate();
+            small.clear();
+            counts.asCharBuffer().put(small);
+        } else {
+            counts = ByteBuffer.allocate(4 * TileCache.Tile.PIXELS);
+            IntBuffer large = tile.large.duplicate();
+            large.clear();
+            counts.asIntBuffer().put(large);
+        }
+        return counts;
+    }
+
+    private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int written = 0;
+        while (buffer.hasRemaining())
+            written += channel.write(buffer, position + written);
+        return written;
+    }
+
+    //The whole data file is mapped at once while it fits, and mapped again when it has grown past the mapping
+    private ByteBuffer map(Entry entry) throws IOException {
+        long end = entry.offset + entry.length;
+        if (mapped == null || end > mapped.capacity()) {
+            long size = data.size();
+            if (size > Integer.MAX_VALUE)
+                return data.map(FileChannel.MapMode.READ_ONLY, entry.offset, entry.length);
+            mapped = data.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return slice(mapped, (int) entry.offset, entry.length).asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.limit(offset + length);
+        return view.slice();
+    }
+
+    private static void writeKey(ByteBuffer out, TileCache.Key key) {
+        out.putLong(key.pixelWidth).putLong(key.pixelHeight);
+        out.putInt(key.phaseX).putInt(key.phaseY);
+        putBigInteger(out, key.tileX);
+        putBigInteger(out, key.tileY);
+        out.putInt(key.numIterations);
+        out.put((byte) key.tier.ordinal());
+        out.putLong(key.juliaX).putLong(key.juliaY);
+    }
+
+    //Null for a tier this version doesn't know or a coordinate that can't be one
+    private static TileCache.Key readKey(ByteBuffer in) {
+        double pixelWidth = Double.longBitsToDouble(in.getLong());
+        double pixelHeight = Double.longBitsToDouble(in.getLong());
+        int phaseX = in.getInt(), phaseY = in.getInt();
+        BigInteger tileX = getBigInteger(in), tileY = getBigInteger(in);
+        int numIterations = in.getInt();
+        int tier = in.get();
+        if (tileX == null || tileY == null || tier < 0 || tier >= PrecisionTier.values().length)
+            return null;
+        double juliaX = Double.longBitsToDouble(in.getLong());
+        double juliaY = Double.longBitsToDouble(in.getLong());
+        return new TileCache.Key(pixelWidth, pixelHeight, phaseX, phaseY, tileX, tileY, numIterations,
+                PrecisionTier.values()[tier], juliaX, juliaY);
+    }
+
+    private static void putBigInteger(ByteBuffer out, BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        out.putShort((short) bytes.length).put(bytes);
+    }
+
+    //Null for an empty coordinate, toByteArray always writes at least a byte
+    private static BigInteger getBigInteger(ByteBuffer in) {
+        short length = in.getShort();
+        if (length <= 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.get(bytes);
+        return new BigInteger(bytes);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            index.close();
+        } finally {
+            data.close();
+        }
+    }
+
+    //Where one tile's counts are in the data file
+    static final class Entry {
+        final long offset;
+        final int length;
+        final int crc;
+        final byte format;
+
+        Entry(long offset, int length, int crc, byte format) {
+            this.offset = offset;
+            this.length = length;
+            this.crc = crc;
+            this.format = format;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package mandelbrot;
+
+/**
+ * The Tricorn, z = conj(z)^2 + c, and its Julia sets. Also known as the Mandelbar set, it has three-fold
+ * symmetry where the Mandelbrot set has a cardioid.
+ * <p>
+ * Like {@link PrimitiveKernel} it carries the squares over between steps and, with interior checks, catches
+ * orbits that fall into a cycle with Brent's method. There is no cardioid test, the shape is a different one.
+ */
+public final class TricornKernel extends FormulaKernel {
+
+    public TricornKernel() {
+        this(Formula.TRICORN, true);
+    }
+
+    public TricornKernel(boolean interiorChecks) {
+        this(Formula.TRICORN, interiorChecks);
+    }
+
+    TricornKernel(Formula formula, boolean interiorChecks) {
+        super(formula, interiorChecks);
+    }
+
+    @Override
+    int iterate(double zr, double zi, double cr, double ci, int maxIterations) {
+        return iterate(zr, zi, cr, ci, maxIterations, interiorChecks);
+    }
+
+    @Override
+    public void mandelbrotRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations) {
+        super.mandelbrotRow(viewport, y, x, count, maxIterations, iterations);
+    }
+
+    @Override
+    public void juliaRow(Viewport viewport, double cx, double cy, int y, int x, int count, int maxIterations,
+                         int[] iterations) {
+        super.juliaRow(viewport, cx, cy, y, x, count, maxIterations, iterations);
+    }
+
+    @Override
+    public double smoothValue(double x, double y, int iterations) {
+        double zr = julia ? x : 0, zi = julia ? y : 0;
+        double cr = julia ? juliaX : x, ci = julia ? juliaY : y;
+        for (int i = 0; i < iterations + smoothSteps; i++) {
+            double t = zr * zr - zi * zi + cr;
+            zi = -2 * zr * zi + ci;
+            zr = t;
+        }
+        return renormalize(zr, zi, iterations);
+    }
+
+    static int iterate(double zr, double zi, double cr, double ci, int maxIterations, boolean detectCycles) {
+        double zr2 = zr * zr;
+        double zi2 = zi * zi;
+        int iterations = 0;
+
+        double savedR = zr, savedI = zi;
+        int period = 8, steps = 0;
+
+        while (zr2 + zi2 < 4 && iterations < maxIterations) {
+            //conj(a+bi)^2 = a^2 - b^2 - 2abi
+            zi = -2 * zr * zi + ci;
+            zr = zr2 - zi2 + cr;
+            zr2 = zr * zr;
+            zi2 = zi * zi;
+            iterations++;
+
+            if (detectCycles) {
+                if (Math.abs(zr - savedR) + Math.abs(zi - savedI) < PrimitiveKernel.PERIOD_EPSILON)
+                    return maxIterations;
+                if (++steps == period) {
+                    steps = 0;
+                    period <<= 1;
+                    savedR = zr;
+                    savedI = zi;
+                }
+            }
+        }
+        return iterations;
+    }
+}
@@ -0,0 +1,200 @@
+package mandelbrot;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * Immutable description of what gets rendered: the bounds on the complex plane and the size of the pixel grid
+ * they are mapped onto. Has no AWT dependency so it can be passed around headless.
+ * <p>
+ * Besides the double bounds a viewport keeps its centre as an exact {@link BigDecimal} and its pixel size as
+ * doubles. Past about 1e-13 the bounds can no longer tell neighbouring pixels apart, but centre and pixel size
+ * still can, and that is what deep zooms are computed and zoomed from (see {@link PrecisionTier}).
+ */
+public final class Viewport {
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+
+    final double xMin, xMax, yMin, yMax;
+    final int width, height;
+    final BigDecimal centreX, centreY;
+    final double pixelWidth, pixelHeight;
+
+    public Viewport(double xMin, double xMax, double yMin, double yMax, int width, int height) {
+        checkSize(width, height);
+        this.xMin = xMin;
+        this.xMax = xMax;
+        this.yMin = yMin;
+        this.yMax = yMax;
+        this.width = width;
+        this.height = height;
+        this.centreX = new BigDecimal(xMin).add(new BigDecimal(xMax)).multiply(HALF);
+        this.centreY = new BigDecimal(yMin).add(new BigDecimal(yMax)).multiply(HALF);
+        this.pixelWidth = (xMax - xMin) / width;
+        this.pixelHeight = (yMax - yMin) / height;
+    }
+
+    private Viewport(BigDecimal centreX, BigDecimal centreY, double pixelWidth, double pixelHeight, int width, int height) {
+        checkSize(width, height);
+        this.centreX = centreX;
+        this.centreY = centreY;
+        this.pixelWidth = pixelWidth;
+        this.pixelHeight = pixelHeight;
+        this.width = width;
+        this.height = height;
+
+        //Nearest doubles, only exact while the zoom is shallow
+        double cx = centreX.doubleValue(), cy = centreY.doubleValue();
+        this.xMin = cx - pixelWidth * width / 2;
+        this.xMax = cx + pixelWidth * width / 2;
+        this.yMin = cy - pixelHeight * height / 2;
+        this.yMax = cy + pixelHeight * height / 2;
+    }
+
+    //A viewport given by its exact centre, for zooms deeper than the double bounds can hold
+    public static Viewport centred(BigDecimal centreX, BigDecimal centreY, double pixelWidth, double pixelHeight,
+                                   int width, int height) {
+        if (!(pixelWidth > 0) || !(pixelHeight > 0))
+            throw new IllegalArgumentException("Pixel size must be positive: " + pixelWidth + "x" + pixelHeight);
+        return new Viewport(centreX, centreY, pixelWidth, pixelHeight, width, height);
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width <= 0 || height <= 0)
+            throw new IllegalArgumentException("Viewport size must be positive: " + width + "x" + height);
+    }
+
+    public double getXMin() {
+        return xMin;
+    }
+
+    public double getXMax() {
+        return xMax;
+    }
+
+    public double getYMin() {
+        return yMin;
+    }
+
+    public double getYMax() {
+        return yMax;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getArea() {
+        return width * height;
+    }
+
+    public BigDecimal getCentreX() {
+        return centreX;
+    }
+
+    public BigDecimal getCentreY() {
+        return centreY;
+    }
+
+    public double getPixelWidth() {
+        return pixelWidth;
+    }
+
+    public double getPixelHeight() {
+        return pixelHeight;
+    }
+
+    public double calculateX(int x) {
+        //xMax and xMin is set as as the boundary values
+        return xMin + x * ((xMax - xMin) / width);
+    }
+
+    public double calculateY(int y) {
+        //yMax and yMin is set as the boundary values
+        return yMax - y * ((yMax - yMin) / height);
+    }
+
+    //Between pixels, for samples inside them
+    public double calculateX(double x) {
+        return xMin + x * ((xMax - xMin) / width);
+    }
+
+    public double calculateY(double y) {
+        return yMax - y * ((yMax - yMin) / height);
+    }
+
+    //Distance of pixel x from the centre, stays accurate at any zoom
+    public double offsetX(double x) {
+        return (x - width / 2.0) * pixelWidth;
+    }
+
+    //Imaginary axis points up, pixel rows go down
+    public double offsetY(double y) {
+        return (height / 2.0 - y) * pixelHeight;
+    }
+
+    //Returns the viewport covered by the given pixel rectangle at the same image size, moving the exact centre
+    public Viewport zoom(int x, int y, int rectWidth, int rectHeight) {
+        double newPixelWidth = pixelWidth * rectWidth / width;
+        double newPixelHeight = pixelHeight * rectHeight / height;
+
+        //Digits below the new pixel size are noise, drop them so the centre doesn't grow with every zoom
+        MathContext mc = contextFor(Math.min(newPixelWidth, newPixelHeight));
+        BigDecimal newCentreX = centreX.add(new BigDecimal(offsetX(x + rectWidth / 2.0)), mc);
+        BigDecimal newCentreY = centreY.add(new BigDecimal(offsetY(y + rectHeight / 2.0)), mc);
+        return new Viewport(newCentreX, newCentreY, newPixelWidth, newPixelHeight, width, height);
+    }
+
+    //Moves the view by whole pixels, right and down, so the new pixel grid lies exactly on the old one
+    public Viewport pan(int dx, int dy) {
+        MathContext mc = contextFor(Math.min(pixelWidth, pixelHeight));
+        BigDecimal newCentreX = centreX.add(new BigDecimal(dx * pixelWidth), mc);
+        BigDecimal newCentreY = centreY.subtract(new BigDecimal(dy * pixelHeight), mc);
+        return new Viewport(newCentreX, newCentreY, pixelWidth, pixelHeight, width, height);
+    }
+
+    //Multiplies the pixel size by factor keeping the point under pixel (x, y) where it is.
+    //Powers of two keep every other pixel, or all of them, on the old grid.
+    public Viewport scale(int x, int y, double factor) {
+        if (!(factor > 0))
+            throw new IllegalArgumentException("Scale factor must be positive: " + factor);
+        double newPixelWidth = pixelWidth * factor;
+        double newPixelHeight = pixelHeight * factor;
+
+        MathContext mc = contextFor(Math.min(newPixelWidth, newPixelHeight));
+        BigDecimal newCentreX = centreX.add(new BigDecimal(offsetX(x) * (1 - factor)), mc);
+        BigDecimal newCentreY = centreY.add(new BigDecimal(offsetY(y) * (1 - factor)), mc);
+        return new Viewport(newCentreX, newCentreY, newPixelWidth, newPixelHeight, width, height);
+    }
+
+    //The pixels of the rectangle on exactly the same grid, for rendering part of a frame on its own
+    public Viewport crop(int x, int y, int rectWidth, int rectHeight) {
+        if (x < 0 || y < 0 || rectWidth <= 0 || rectHeight <= 0 || x + rectWidth > width || y + rectHeight > height)
+            throw new IllegalArgumentException("Rectangle " + rectWidth + "x" + rectHeight + " at " + x + ", " + y
+                    + " isn't inside " + width + "x" + height);
+        MathContext mc = contextFor(Math.min(pixelWidth, pixelHeight));
+        double shiftX = (x + rectWidth / 2.0 - width / 2.0) * pixelWidth;
+        double shiftY = (height / 2.0 - y - rectHeight / 2.0) * pixelHeight;
+        BigDecimal newCentreX = shiftX == 0 ? centreX : centreX.add(new BigDecimal(shiftX), mc);
+        BigDecimal newCentreY = shiftY == 0 ? centreY : centreY.add(new BigDecimal(shiftY), mc);
+        return new Viewport(newCentreX, newCentreY, pixelWidth, pixelHeight, rectWidth, rectHeight);
+    }
+
+    //Enough significant digits to resolve a pixel of this size on coordinates up to about 2
+    static MathContext contextFor(double pixelSize) {
+        int digits = (int) Math.ceil(-Math.log10(pixelSize)) + 16;
+        return new MathContext(Math.max(digits, 20), RoundingMode.HALF_EVEN);
+    }
+
+    @Override
+    public String toString() {
+        if (PrecisionTier.forViewport(this) != PrecisionTier.DOUBLE)
+            return "centre " + centreX.toPlainString() + " + " + centreY.toPlainString() + "i, pixel " + pixelWidth
+                    + "x" + pixelHeight + " @ " + width + "x" + height;
+        return "[" + xMin + ", " + xMax + "] x [" + yMin + ", " + yMax + "] @ " + width + "x" + height;
+    }
+}
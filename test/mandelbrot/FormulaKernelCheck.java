@@ -0,0 +1,111 @@
+package mandelbrot;
+
+import java.util.Arrays;
+
+/**
+ * That every formula's kernel counts what the formula says: rows and single pixels of each kernel, with and
+ * without interior checks, against plain loops written from the formulas, for the sets and their Julia sets.
+ * Exits with status 1 on the first failure.
+ */
+public class FormulaKernelCheck {
+    static final int SIZE = 200;
+    static final int MAX_ITERATIONS = 500;
+    static final String[] FORMULAS = {"mandelbrot", "tricorn", "burningship", "multibrot3", "multibrot5",
+            "mandelbrot julia -0.8 0.156", "tricorn julia -0.4 0.5", "burningship julia -1.7 -0.05",
+            "multibrot3 julia 0.4 0.1"};
+
+    public static void main(String[] args) {
+        Viewport viewport = new Viewport(-2, 2, -2, 2, SIZE, SIZE);
+        for (String name : FORMULAS) {
+            Formula formula = Formula.forName(name);
+            int[] expected = reference(formula, viewport);
+            for (boolean interiorChecks : new boolean[]{false, true}) {
+                EscapeKernel kernel = formula.createKernel(interiorChecks);
+                String what = name + (interiorChecks ? " with" : " without") + " interior checks";
+
+                int[] rows = new int[viewport.getArea()];
+                for (int y = 0; y < SIZE; y++)
+                    kernel.mandelbrotRow(viewport, y, 0, SIZE, MAX_ITERATIONS, rows);
+                check(Arrays.equals(rows, expected), what + ": rows match the formula");
+
+                int[] pixels = new int[viewport.getArea()];
+                for (int y = 0; y < SIZE; y++)
+                    for (int x = 0; x < SIZE; x++)
+                        pixels[y * SIZE + x] = kernel.mandelbrot(viewport.calculateX(x), viewport.calculateY(y),
+                                MAX_ITERATIONS);
+                check(Arrays.equals(pixels, expected), what + ": pixels match the formula");
+            }
+        }
+
+        //A set's kernel renders its Julia sets too, the same as the Julia formula's kernel
+        for (String name : new String[]{"tricorn", "burningship", "multibrot3"}) {
+            Formula formula = Formula.forName(name);
+            int[] rows = new int[viewport.getArea()];
+            EscapeKernel kernel = formula.createKernel(false);
+            for (int y = 0; y < SIZE; y++)
+                kernel.juliaRow(viewport, -0.4, 0.5, y, 0, SIZE, MAX_ITERATIONS, rows);
+            check(Arrays.equals(rows, reference(formula.julia(-0.4, 0.5), viewport)),
+                    name + ": juliaRow matches the Julia formula");
+        }
+        System.out.println("FormulaKernelCheck passed");
+    }
+
+    static int[] reference(Formula formula, Viewport viewport) {
+        String base = formula.getBase().getName();
+        int[] iterations = new int[viewport.getArea()];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                double px = viewport.calculateX(x), py = viewport.calculateY(y);
+                if (formula.isJulia()) {
+                    Formula.Julia julia = (Formula.Julia) formula;
+                    iterations[y * SIZE + x] = iterate(base, px, py, julia.cx, julia.cy);
+                } else {
+                    iterations[y * SIZE + x] = iterate(base, 0, 0, px, py);
+                }
+            }
+        }
+        return iterations;
+    }
+
+    //The formulas as written, no shortcuts
+    static int iterate(String formula, double zr, double zi, double cr, double ci) {
+        int n = 0;
+        while (zr * zr + zi * zi < 4 && n < MAX_ITERATIONS) {
+            double r, i;
+            if (formula.equals("mandelbrot")) {
+                r = zr * zr - zi * zi;
+                i = 2 * zr * zi;
+            } else if (formula.equals("tricorn")) {
+                r = zr * zr - zi * zi;
+                i = -2 * zr * zi;
+            } else if (formula.equals("burningship")) {
+                r = zr * zr - zi * zi;
+                i = 2 * Math.abs(zr * zi);
+            } else if (formula.equals("multibrot3")) {
+                r = zr * zr * zr - 3 * zr * zi * zi;
+                i = 3 * zr * zr * zi - zi * zi * zi;
+            } else {
+                //z^power, one multiplication by z at a time
+                int power = Integer.parseInt(formula.substring("multibrot".length()));
+                r = zr;
+                i = zi;
+                for (int k = 1; k < power; k++) {
+                    double t = r * zr - i * zi;
+                    i = r * zi + i * zr;
+                    r = t;
+                }
+            }
+            zr = r + cr;
+            zi = i + ci;
+            n++;
+        }
+        return n;
+    }
+
+    static void check(boolean condition, String what) {
+        if (!condition) {
+            System.err.println("FormulaKernelCheck failed: " + what);
+            System.exit(1);
+        }
+    }
+}
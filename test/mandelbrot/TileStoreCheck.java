@@ -0,0 +1,137 @@
+package mandelbrot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * How a {@link TileStore} reopens after damage to its index: records it can't read or that fail their checksum
+ * are skipped and kept, only a torn tail is cut. Exits with status 1 on the first failure.
+ */
+public class TileStoreCheck {
+    static final int TILES = 3;
+    //Offset of the tier byte in a record written for key(i): two doubles, two ints, two one-byte BigIntegers
+    //with their lengths and the limit
+    static final int TIER_OFFSET = 8 + 8 + 4 + 4 + 3 + 3 + 4;
+
+    public static void main(String[] args) throws IOException {
+        File directory = Files.createTempDirectory("tilestore").toFile();
+        try {
+            write(directory);
+            check(open(directory).size() == TILES, "all records read back");
+            check(count(directory, 1) == 1 && count(directory, 3) == 3, "counts read back");
+            long length = indexLength(directory);
+
+            //A tier this version doesn't know, with a good checksum: skipped, nothing cut
+            patchRecord(directory, 1, TIER_OFFSET, (byte) 99, true);
+            TileStore store = open(directory);
+            check(store.size() == TILES - 1 && !store.contains(key(2)) && store.contains(key(3)),
+                    "unknown tier skipped, later records kept");
+            check(indexLength(directory) == length, "index not cut for an unreadable record");
+
+            //A bad checksum halfway: skipped, nothing cut
+            patchRecord(directory, 0, 0, (byte) 1, false);
+            store = open(directory);
+            check(store.size() == 1 && store.contains(key(3)), "record failing its checksum skipped");
+            check(indexLength(directory) == length, "index not cut for a bad checksum halfway");
+
+            //A torn last record: cut
+            RandomAccessFile index = new RandomAccessFile(new File(directory, "tiles.idx"), "rw");
+            index.setLength(length - 3);
+            index.close();
+            store = open(directory);
+            check(store.size() == 0, "torn tail dropped");
+            check(indexLength(directory) < length - 3, "torn tail cut");
+
+            //And the store takes appends again
+            write(directory);
+            check(open(directory).size() == TILES, "appends after the cut read back");
+        } finally {
+            for (File file : directory.listFiles())
+                file.delete();
+            directory.delete();
+        }
+        System.out.println("TileStoreCheck passed");
+    }
+
+    static TileCache.Key key(int i) {
+        return new TileCache.Key(1e-20, 1e-20, 0, 0, BigInteger.valueOf(i), BigInteger.ONE, 1000,
+                PrecisionTier.PERTURBATION, Double.NaN, Double.NaN);
+    }
+
+    static void write(File directory) throws IOException {
+        TileStore store = new TileStore(directory);
+        try {
+            for (int i = 1; i <= TILES; i++) {
+                TileCache.Tile tile = new TileCache.Tile(1000);
+                tile.set(0, i);
+                List<Map.Entry<TileCache.Key, TileCache.Tile>> tiles = new ArrayList<Map.Entry<TileCache.Key, TileCache.Tile>>();
+                tiles.add(new AbstractMap.SimpleEntry<TileCache.Key, TileCache.Tile>(key(i), tile));
+                store.write(tiles);
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    //Opens and closes the store, so the clean-up has run, and hands back the closed store for its counts
+    static TileStore open(File directory) throws IOException {
+        TileStore store = new TileStore(directory);
+        store.close();
+        return store;
+    }
+
+    static int count(File directory, int i) throws IOException {
+        TileStore store = new TileStore(directory);
+        try {
+            TileCache.Tile tile = store.read(key(i));
+            return tile == null ? -1 : tile.get(0);
+        } finally {
+            store.close();
+        }
+    }
+
+    static long indexLength(File directory) {
+        return new File(directory, "tiles.idx").length();
+    }
+
+    //Sets one byte of the record-th record, fixing its checksum up or leaving it wrong
+    static void patchRecord(File directory, int record, int offset, byte value, boolean fixChecksum)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(new File(directory, "tiles.idx"), "rw");
+        try {
+            byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            int position = TileStore.HEADER_SIZE;
+            for (int r = 0; r < record; r++)
+                position += 4 + buffer.getInt(position) + 4;
+            int length = buffer.getInt(position);
+            bytes[position + 4 + offset] ^= value;
+            if (fixChecksum) {
+                CRC32 crc = new CRC32();
+                crc.update(bytes, position + 4, length);
+                buffer.putInt(position + 4 + length, (int) crc.getValue());
+            }
+            file.seek(0);
+            file.write(bytes);
+        } finally {
+            file.close();
+        }
+    }
+
+    static void check(boolean condition, String what) {
+        if (!condition) {
+            System.err.println("TileStoreCheck failed: " + what);
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package mandelbrot;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.util.Arrays;
+
+/**
+ * {@link PrimitiveKernel} with the row loops running one pixel per SIMD lane, 4 lanes on AVX2 and 8 on AVX-512.
+ * All lanes step together; a lane drops out of the active mask when it escapes or its orbit is caught in a cycle,
+ * and the row chunk stops as soon as no lane is active. Same arithmetic in the same order as the scalar kernel, so
+ * the counts are identical; pixels left over at the end of a span go through the scalar path.
+ * <p>
+ * Needs {@code --add-modules jdk.incubator.vector} at compile and run time. Never referenced directly, the engine
+ * loads it through {@link EscapeKernel#createDefault()}, which falls back to the scalar kernel without the module.
+ */
+public class VectorKernel extends PrimitiveKernel {
+    static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    public VectorKernel() {
+        this(true);
+    }
+
+    public VectorKernel(boolean interiorChecks) {
+        super(interiorChecks);
+        //Fails here rather than on the first render if the platform has no usable vector shape
+        if (SPECIES.length() < 2)
+            throw new UnsupportedOperationException("No SIMD lanes for doubles on this platform");
+    }
+
+    public int getLanes() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void mandelbrotRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations) {
+        final int lanes = SPECIES.length();
+        final double cy = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        final double[] zero = new double[lanes];
+        final double[] cr = new double[lanes];
+        final double[] ci = new double[lanes];
+        final double[] result = new double[lanes];
+        Arrays.fill(ci, cy);
+
+        int i = x;
+        for (; i + lanes <= x + count; i += lanes) {
+            for (int lane = 0; lane < lanes; lane++)
+                cr[lane] = viewport.calculateX(i + lane);
+            if (interiorChecks)
+                escapeOrCycle(zero, zero, cr, ci, true, maxIterations, result, null, null);
+            else
+                escape(zero, zero, cr, ci, maxIterations, result, null, null);
+            for (int lane = 0; lane < lanes; lane++)
+                iterations[offset + i + lane] = (int) result[lane];
+        }
+        for (; i < x + count; i++)
+            iterations[offset + i] = mandelbrot(viewport.calculateX(i), cy, maxIterations);
+    }
+
+    @Override
+    public void mandelbrotRow(Viewport viewport, int y, int x, int count, int maxIterations, int[] iterations,
+                              double[] orbitR, double[] orbitI) {
+        final int lanes = SPECIES.length();
+        final double cy = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        final double[] zero = new double[lanes];
+        final double[] cr = new double[lanes];
+        final double[] ci = new double[lanes];
+        final double[] result = new double[lanes];
+        final double[] zr = new double[lanes];
+        final double[] zi = new double[lanes];
+        Arrays.fill(ci, cy);
+
+        int i = x;
+        for (; i + lanes <= x + count; i += lanes) {
+            for (int lane = 0; lane < lanes; lane++)
+                cr[lane] = viewport.calculateX(i + lane);
+            if (interiorChecks)
+                escapeOrCycle(zero, zero, cr, ci, true, maxIterations, result, zr, zi);
+            else
+                escape(zero, zero, cr, ci, maxIterations, result, zr, zi);
+            for (int lane = 0; lane < lanes; lane++)
+                iterations[offset + i + lane] = (int) result[lane];
+            System.arraycopy(zr, 0, orbitR, i - x, lanes);
+            System.arraycopy(zi, 0, orbitI, i - x, lanes);
+        }
+        for (; i < x + count; i++) {
+            orbitR[i - x] = orbitI[i - x] = 0;
+            iterations[offset + i] = mandelbrotOrbit(viewport.calculateX(i), cy, orbitR, orbitI, i - x, 0, maxIterations);
+        }
+    }
+
+    @Override
+    public void juliaRow(Viewport viewport, double cx, double cy, int y, int x, int count, int maxIterations, int[] iterations) {
+        final int lanes = SPECIES.length();
+        final double zy = viewport.calculateY(y);
+        final int offset = y * viewport.width;
+        final double[] zr = new double[lanes];
+        final double[] zi = new double[lanes];
+        final double[] cr = new double[lanes];
+        final double[] ci = new double[lanes];
+        final double[] result = new double[lanes];
+        Arrays.fill(zi, zy);
+        Arrays.fill(cr, cx);
+        Arrays.fill(ci, cy);
+
+        int i = x;
+        for (; i + lanes <= x + count; i += lanes) {
+            for (int lane = 0; lane < lanes; lane++)
+                zr[lane] = viewport.calculateX(i + lane);
+            if (interiorChecks)
+                escapeOrCycle(zr, zi, cr, ci, false, maxIterations, result, null, null);
+            else
+                escape(zr, zi, cr, ci, maxIterations, result, null, null);
+            for (int lane = 0; lane < lanes; lane++)
+                iterations[offset + i + lane] = (int) result[lane];
+        }
+        for (; i < x + count; i++)
+            iterations[offset + i] = julia(viewport.calculateX(i), zy, cx, cy, maxIterations);
+    }
+
+    //Vectors only live inside these two methods: passed between methods that the JIT doesn't inline they get
+    //boxed, which costs more than the SIMD gains. For the same reason the cycle detection is a separate loop.
+    //Given zrEnd and ziEnd they get the last z of every lane, which only means something for lanes at the limit.
+    private static void escape(double[] zrStart, double[] ziStart, double[] crLanes, double[] ciLanes,
+                               int maxIterations, double[] result, double[] zrEnd, double[] ziEnd) {
+        final DoubleVector cr = DoubleVector.fromArray(SPECIES, crLanes, 0);
+        final DoubleVector ci = DoubleVector.fromArray(SPECIES, ciLanes, 0);
+        DoubleVector zr = DoubleVector.fromArray(SPECIES, zrStart, 0);
+        DoubleVector zi = DoubleVector.fromArray(SPECIES, ziStart, 0);
+        DoubleVector zr2 = zr.mul(zr);
+        DoubleVector zi2 = zi.mul(zi);
+        DoubleVector counts = DoubleVector.zero(SPECIES);
+
+        //A lane counts a step for as long as its z from before the step was inside, like the scalar loop
+        VectorMask<Double> active = zr2.add(zi2).lt(4);
+
+        for (int n = 0; n < maxIterations; n++) {
+            //Mask tests are costly next to the arithmetic, so the early exit is only checked every few steps
+            if ((n & 15) == 0 && !active.anyTrue())
+                break;
+
+            counts = counts.add(1, active);
+
+            //(a+bi)^2 = a^2 - b^2 + 2abi
+            zi = zr.mul(zi).mul(2).add(ci);
+            zr = zr2.sub(zi2).add(cr);
+            zr2 = zr.mul(zr);
+            zi2 = zi.mul(zi);
+            active = active.and(zr2.add(zi2).lt(4));
+        }
+        counts.intoArray(result, 0);
+        if (zrEnd != null) {
+            zr.intoArray(zrEnd, 0);
+            zi.intoArray(ziEnd, 0);
+        }
+    }
+
+    //Same loop with the cardioid and bulb test up front and Brent's cycle detection, both jump to the limit.
+    //Lanes proven periodic end with a NaN z.
+    private static void escapeOrCycle(double[] zrStart, double[] ziStart, double[] crLanes, double[] ciLanes,
+                                      boolean mandelbrot, int maxIterations, double[] result,
+                                      double[] zrEnd, double[] ziEnd) {
+        final DoubleVector cr = DoubleVector.fromArray(SPECIES, crLanes, 0);
+        final DoubleVector ci = DoubleVector.fromArray(SPECIES, ciLanes, 0);
+        DoubleVector zr = DoubleVector.fromArray(SPECIES, zrStart, 0);
+        DoubleVector zi = DoubleVector.fromArray(SPECIES, ziStart, 0);
+        DoubleVector zr2 = zr.mul(zr);
+        DoubleVector zi2 = zi.mul(zi);
+        DoubleVector counts = DoubleVector.zero(SPECIES);
+
+        VectorMask<Double> periodic = SPECIES.maskAll(false);
+        if (mandelbrot) {
+            //Main cardioid or the period-2 bulb to its left
+            DoubleVector y2 = ci.mul(ci);
+            DoubleVector xq = cr.sub(0.25);
+            DoubleVector q = xq.mul(xq).add(y2);
+            DoubleVector x1 = cr.add(1);
+            periodic = q.mul(q.add(xq)).compare(VectorOperators.LE, y2.mul(0.25))
+                    .or(x1.mul(x1).add(y2).compare(VectorOperators.LE, 0.0625));
+        }
+        VectorMask<Double> active = zr2.add(zi2).lt(4).andNot(periodic);
+
+        //Brent: z is saved each time the steps since the last save reach the period, which then doubles, so at
+        //8, 24, 56... as in PrimitiveKernel. Saving is a blend rather than an assignment in a branch, vectors
+        //assigned inside branches get boxed by the JIT.
+        DoubleVector savedR = zr, savedI = zi;
+        int period = 8, nextSave = period;
+
+        for (int n = 0; n < maxIterations; n++) {
+            if ((n & 15) == 0 && !active.anyTrue())
+                break;
+
+            counts = counts.add(1, active);
+
+            zi = zr.mul(zi).mul(2).add(ci);
+            zr = zr2.sub(zi2).add(cr);
+            zr2 = zr.mul(zr);
+            zi2 = zi.mul(zi);
+
+            VectorMask<Double> cycle = zr.sub(savedR).abs().add(zi.sub(savedI).abs()).lt(PERIOD_EPSILON).and(active);
+            periodic = periodic.or(cycle);
+            active = active.and(zr2.add(zi2).lt(4)).andNot(cycle);
+
+            boolean save = n + 1 == nextSave;
+            VectorMask<Double> saveMask = SPECIES.maskAll(save);
+            savedR = savedR.blend(zr, saveMask);
+            savedI = savedI.blend(zi, saveMask);
+            if (save) {
+                period <<= 1;
+                nextSave += period;
+            }
+        }
+        counts.blend(maxIterations, periodic).intoArray(result, 0);
+        if (zrEnd != null) {
+            zr.blend(Double.NaN, periodic).intoArray(zrEnd, 0);
+            zi.blend(Double.NaN, periodic).intoArray(ziEnd, 0);
+        }
+    }
+}